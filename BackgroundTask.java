@@ -0,0 +1,84 @@
+import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+//операция с базой вне потока интерфейса: work выполняется в фоне, ход работы передаётся
+//в поток интерфейса через progress, там же вызываются onDone, onError и onCancel
+//отмена только просит остановиться: work сам проверяет isCancelRequested в безопасных местах
+//(импорт CSV - через свой Progress) и бросает CancellationException, а onCancel вызывается
+//после того, как work действительно завершился; cancel() самого
+//SwingWorker не используется, он завершает задачу сразу, пока work ещё работает с базой
+class BackgroundTask<T> extends SwingWorker<T, BackgroundTask.Progress> {
+    interface Work<T> {
+        T run(BackgroundTask<?> task) throws Exception;
+    }
+
+    //сообщение и процент выполнения, -1 если объём работы неизвестен
+    static final class Progress {
+        final String message;
+        final int percent;
+
+        Progress(String message, int percent) {
+            this.message = message;
+            this.percent = percent;
+        }
+    }
+
+    private final Work<T> work;
+    private final Consumer<Progress> onProgress;
+    private final Consumer<T> onDone;
+    private final Consumer<Exception> onError;
+    private final Runnable onCancel;
+    private volatile boolean cancelRequested;
+
+    BackgroundTask(Work<T> work, Consumer<Progress> onProgress, Consumer<T> onDone,
+                   Consumer<Exception> onError, Runnable onCancel) {
+        this.work = work;
+        this.onProgress = onProgress;
+        this.onDone = onDone;
+        this.onError = onError;
+        this.onCancel = onCancel;
+    }
+
+    void progress(String message, int percent) {
+        publish(new Progress(message, percent));
+    }
+
+    void requestCancel() {
+        cancelRequested = true;
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    @Override
+    protected T doInBackground() throws Exception {
+        return work.run(this);
+    }
+
+    @Override
+    protected void process(List<Progress> chunks) {
+        if (!isDone()) {
+            onProgress.accept(chunks.getLast());
+        }
+    }
+
+    @Override
+    protected void done() {
+        try {
+            onDone.accept(get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                onCancel.run();
+            } else {
+                onError.accept(cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,482 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+//одна колонка хранилища: значения в примитивном массиве + битовая карта null
+abstract class ColumnData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    protected BitSet nulls = new BitSet();
+
+    static ColumnData forType(Class<?> type) {
+        if (type == Integer.class) return new IntColumn();
+        if (type == Double.class) return new DoubleColumn();
+        if (type == Boolean.class) return new BooleanColumn();
+        if (type == String.class) return new StringColumn();
+        return new ObjectColumn();
+    }
+
+    boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    Object get(int row) {
+        return nulls.get(row) ? null : getValue(row);
+    }
+
+    //значение должно быть уже приведено через normalize
+    void set(int row, Object value) {
+        ensureCapacity(row + 1);
+        if (value == null) {
+            nulls.set(row);
+            clearValue(row);
+        } else {
+            nulls.clear(row);
+            setValue(row, value);
+        }
+    }
+
+    //приведение значения к типу колонки, вызывается до записи, чтобы не оставить строку наполовину
+    abstract Object normalize(Object value);
+
+    //новая колонка из выбранных строк в заданном порядке
+    abstract ColumnData copyRows(int[] rows, int count);
+
+    protected abstract Object getValue(int row);
+
+    protected abstract void setValue(int row, Object value);
+
+    protected abstract void clearValue(int row);
+
+    protected abstract void ensureCapacity(int rows);
+
+    protected static int grow(int current, int required) {
+        int capacity = Math.max(current, INITIAL_CAPACITY);
+        while (capacity < required) {
+            capacity = capacity + (capacity >> 1);
+        }
+        return capacity;
+    }
+
+    //страница файла базы: битовая карта null и значения строк [from, from + count)
+    void writePage(DataOutput out, int from, int count) throws IOException {
+        writeBits(out, nulls.get(from, from + count));
+        writeValues(out, from, count);
+    }
+
+    void readPage(ByteBuffer in, int from, int count) throws IOException {
+        ensureCapacity(from + count);
+        BitSet pageNulls = readBits(in);
+        for (int i = pageNulls.nextSetBit(0); i >= 0 && i < count; i = pageNulls.nextSetBit(i + 1)) {
+            nulls.set(from + i);
+        }
+        readValues(in, from, count);
+    }
+
+    protected abstract void writeValues(DataOutput out, int from, int count) throws IOException;
+
+    //вызывается после чтения null, строки с null можно пропускать
+    protected abstract void readValues(ByteBuffer in, int from, int count) throws IOException;
+
+    protected static void writeBits(DataOutput out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    protected static BitSet readBits(ByteBuffer in) {
+        long[] words = new long[in.getInt()];
+        in.asLongBuffer().get(words);
+        in.position(in.position() + words.length * Long.BYTES);
+        return BitSet.valueOf(words);
+    }
+
+    protected static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    protected void copyNulls(ColumnData target, int[] rows, int count) {
+        for (int i = 0; i < count; i++) {
+            if (nulls.get(rows[i])) {
+                target.nulls.set(i);
+            }
+        }
+    }
+
+    static class IntColumn extends ColumnData {
+        private static final long serialVersionUID = 1L;
+
+        private int[] values = new int[0];
+
+        int getInt(int row) {
+            return values[row];
+        }
+
+        @Override
+        Object normalize(Object value) {
+            if (value == null || value instanceof Integer) return value;
+            if (value instanceof Number number && number.doubleValue() == number.intValue()) {
+                return number.intValue();
+            }
+            throw new IllegalArgumentException("Ожидается целое число: " + value);
+        }
+
+        @Override
+        ColumnData copyRows(int[] rows, int count) {
+            IntColumn copy = new IntColumn();
+            copy.values = new int[count];
+            for (int i = 0; i < count; i++) {
+                copy.values[i] = values[rows[i]];
+            }
+            copyNulls(copy, rows, count);
+            return copy;
+        }
+
+        @Override
+        protected void writeValues(DataOutput out, int from, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.writeInt(values[from + i]);
+            }
+        }
+
+        @Override
+        protected void readValues(ByteBuffer in, int from, int count) {
+            in.asIntBuffer().get(values, from, count);
+            in.position(in.position() + count * Integer.BYTES);
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        protected void setValue(int row, Object value) {
+            values[row] = (Integer) value;
+        }
+
+        @Override
+        protected void clearValue(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        protected void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, rows));
+            }
+        }
+    }
+
+    static class DoubleColumn extends ColumnData {
+        private static final long serialVersionUID = 1L;
+
+        private double[] values = new double[0];
+
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        Object normalize(Object value) {
+            if (value == null || value instanceof Double) return value;
+            if (value instanceof Number number) {
+                return number.doubleValue();
+            }
+            throw new IllegalArgumentException("Ожидается дробное число: " + value);
+        }
+
+        @Override
+        ColumnData copyRows(int[] rows, int count) {
+            DoubleColumn copy = new DoubleColumn();
+            copy.values = new double[count];
+            for (int i = 0; i < count; i++) {
+                copy.values[i] = values[rows[i]];
+            }
+            copyNulls(copy, rows, count);
+            return copy;
+        }
+
+        @Override
+        protected void writeValues(DataOutput out, int from, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.writeDouble(values[from + i]);
+            }
+        }
+
+        @Override
+        protected void readValues(ByteBuffer in, int from, int count) {
+            in.asDoubleBuffer().get(values, from, count);
+            in.position(in.position() + count * Double.BYTES);
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        protected void setValue(int row, Object value) {
+            values[row] = (Double) value;
+        }
+
+        @Override
+        protected void clearValue(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        protected void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, rows));
+            }
+        }
+    }
+
+    static class BooleanColumn extends ColumnData {
+        private static final long serialVersionUID = 1L;
+
+        private BitSet values = new BitSet();
+
+        boolean getBoolean(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        Object normalize(Object value) {
+            if (value == null || value instanceof Boolean) return value;
+            throw new IllegalArgumentException("Ожидается логическое значение: " + value);
+        }
+
+        @Override
+        ColumnData copyRows(int[] rows, int count) {
+            BooleanColumn copy = new BooleanColumn();
+            for (int i = 0; i < count; i++) {
+                if (values.get(rows[i])) {
+                    copy.values.set(i);
+                }
+            }
+            copyNulls(copy, rows, count);
+            return copy;
+        }
+
+        @Override
+        protected void writeValues(DataOutput out, int from, int count) throws IOException {
+            writeBits(out, values.get(from, from + count));
+        }
+
+        @Override
+        protected void readValues(ByteBuffer in, int from, int count) {
+            BitSet page = readBits(in);
+            for (int i = page.nextSetBit(0); i >= 0 && i < count; i = page.nextSetBit(i + 1)) {
+                values.set(from + i);
+            }
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        protected void setValue(int row, Object value) {
+            values.set(row, (Boolean) value);
+        }
+
+        @Override
+        protected void clearValue(int row) {
+            values.clear(row);
+        }
+
+        @Override
+        protected void ensureCapacity(int rows) {
+        }
+    }
+
+    //строки хранятся кодами словаря, одинаковые значения занимают одну ячейку словаря
+    static class StringColumn extends ColumnData {
+        private static final long serialVersionUID = 1L;
+
+        private int[] codes = new int[0];
+        private List<String> dictionary = new ArrayList<>();
+        private transient Map<String, Integer> codeByValue = new HashMap<>();
+
+        private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+            ois.defaultReadObject();
+            codeByValue = new HashMap<>();
+            for (int i = 0; i < dictionary.size(); i++) {
+                codeByValue.put(dictionary.get(i), i);
+            }
+        }
+
+        private int encode(String value) {
+            Integer code = codeByValue.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                codeByValue.put(value, code);
+            }
+            return code;
+        }
+
+        @Override
+        Object normalize(Object value) {
+            if (value == null || value instanceof String) return value;
+            return value.toString();
+        }
+
+        //при копировании словарь собирается заново, неиспользуемые значения отбрасываются
+        @Override
+        ColumnData copyRows(int[] rows, int count) {
+            StringColumn copy = new StringColumn();
+            copy.codes = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (!nulls.get(rows[i])) {
+                    copy.codes[i] = copy.encode(dictionary.get(codes[rows[i]]));
+                }
+            }
+            copyNulls(copy, rows, count);
+            return copy;
+        }
+
+        //у страницы свой словарь: она читается независимо от остальных
+        @Override
+        protected void writeValues(DataOutput out, int from, int count) throws IOException {
+            Map<Integer, Integer> localCodes = new HashMap<>();
+            List<String> localDictionary = new ArrayList<>();
+            int[] pageCodes = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(from + i)) continue;
+                pageCodes[i] = localCodes.computeIfAbsent(codes[from + i], code -> {
+                    localDictionary.add(dictionary.get(code));
+                    return localDictionary.size() - 1;
+                });
+            }
+
+            out.writeInt(localDictionary.size());
+            for (String value : localDictionary) {
+                writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+            }
+            for (int code : pageCodes) {
+                out.writeInt(code);
+            }
+        }
+
+        @Override
+        protected void readValues(ByteBuffer in, int from, int count) {
+            int[] globalCodes = new int[in.getInt()];
+            for (int i = 0; i < globalCodes.length; i++) {
+                globalCodes[i] = encode(new String(readBytes(in), StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < count; i++) {
+                int code = in.getInt();
+                if (!nulls.get(from + i)) {
+                    codes[from + i] = globalCodes[code];
+                }
+            }
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        @Override
+        protected void setValue(int row, Object value) {
+            codes[row] = encode((String) value);
+        }
+
+        @Override
+        protected void clearValue(int row) {
+            codes[row] = 0;
+        }
+
+        @Override
+        protected void ensureCapacity(int rows) {
+            if (rows > codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length, rows));
+            }
+        }
+    }
+
+    //запасной вариант для типов, у которых нет примитивного представления
+    static class ObjectColumn extends ColumnData {
+        private static final long serialVersionUID = 1L;
+
+        private Object[] values = new Object[0];
+
+        @Override
+        Object normalize(Object value) {
+            return value;
+        }
+
+        @Override
+        ColumnData copyRows(int[] rows, int count) {
+            ObjectColumn copy = new ObjectColumn();
+            copy.values = new Object[count];
+            for (int i = 0; i < count; i++) {
+                copy.values[i] = values[rows[i]];
+            }
+            copyNulls(copy, rows, count);
+            return copy;
+        }
+
+        @Override
+        protected void writeValues(DataOutput out, int from, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(from + i)) continue;
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+                    oos.writeObject(values[from + i]);
+                }
+                writeBytes(out, buffer.toByteArray());
+            }
+        }
+
+        @Override
+        protected void readValues(ByteBuffer in, int from, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(from + i)) continue;
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    values[from + i] = ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Неизвестный тип значения: " + e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        protected Object getValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        protected void setValue(int row, Object value) {
+            values[row] = value;
+        }
+
+        @Override
+        protected void clearValue(int row) {
+            values[row] = null;
+        }
+
+        @Override
+        protected void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, rows));
+            }
+        }
+    }
+}
\ No newline at end of file
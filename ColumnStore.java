@@ -0,0 +1,265 @@
+import java.io.Serializable;
+import java.util.*;
+
+//колоночное хранилище записей, тип колонки берётся из DatabaseColumn.getType()
+//номер строки не меняется, удалённые строки отмечаются в deleted; уплотнение и очистка
+//не трогают хранилище, а дают новое (compactedCopy, emptyCopy)
+//хранилище не потокобезопасно: строки читаются под блокировкой чтения базы
+class ColumnStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int[] NO_ROWS = new int[0];
+    //размер блока строк, для которого запоминается число живых строк перед ним
+    private static final int ORDINAL_BLOCK = 4096;
+
+    private final List<String> names = new ArrayList<>();
+    private ColumnData[] columns = new ColumnData[0];
+    private final BitSet deleted = new BitSet();
+    private int rowCount;
+    private int deletedCount;
+    //меняется при каждом удалении строки: по нему устаревает ordinalIndex
+    private transient int version;
+    private transient OrdinalIndex ordinalIndex;
+
+    //поиск строки по порядковому номеру живой записи: число живых строк перед каждым блоком
+    //и последнее найденное соответствие, от которого соседние записи (прокрутка таблицы)
+    //находятся за несколько шагов; объект не меняется, а заменяется целиком
+    private static final class OrdinalIndex {
+        final int version;
+        final int[] liveBefore;
+        final int ordinal;
+        final int row;
+
+        OrdinalIndex(int version, int[] liveBefore, int ordinal, int row) {
+            this.version = version;
+            this.liveBefore = liveBefore;
+            this.ordinal = ordinal;
+            this.row = row;
+        }
+    }
+
+    //хранилище из колонок, прочитанных из файла базы
+    static ColumnStore restore(List<String> names, ColumnData[] columns, BitSet deleted, int rowCount) {
+        ColumnStore store = new ColumnStore();
+        store.names.addAll(names);
+        store.columns = columns;
+        store.deleted.or(deleted);
+        store.deleted.clear(rowCount, Math.max(rowCount, deleted.length()));
+        store.rowCount = rowCount;
+        store.deletedCount = store.deleted.cardinality();
+        return store;
+    }
+
+    void addColumn(String name, Class<?> type) {
+        ColumnData column = ColumnData.forType(type);
+        if (rowCount > 0) {
+            column.ensureCapacity(rowCount);
+            column.nulls.set(0, rowCount);
+        }
+        names.add(name);
+        columns = Arrays.copyOf(columns, columns.length + 1);
+        columns[columns.length - 1] = column;
+    }
+
+    int columnIndex(Object name) {
+        return names.indexOf(name);
+    }
+
+    int columnCount() {
+        return names.size();
+    }
+
+    String columnName(int column) {
+        return names.get(column);
+    }
+
+    //количество номеров строк, включая удалённые
+    int size() {
+        return rowCount;
+    }
+
+    int liveCount() {
+        return rowCount - deletedCount;
+    }
+
+    int deletedCount() {
+        return deletedCount;
+    }
+
+    BitSet deletedRows() {
+        return (BitSet) deleted.clone();
+    }
+
+    boolean isLive(int row) {
+        return row >= 0 && row < rowCount && !deleted.get(row);
+    }
+
+    void delete(int row) {
+        if (isLive(row)) {
+            deleted.set(row);
+            deletedCount++;
+            version++;
+        }
+    }
+
+    //следующая живая строка начиная с row, -1 если таких нет
+    int nextLive(int row) {
+        int next = deleted.nextClearBit(row);
+        return next < rowCount ? next : -1;
+    }
+
+    //номер строки живой записи с порядковым номером ordinal: без удалённых строк они совпадают,
+    //иначе идём от последнего найденного соответствия, если оно близко, или от начала блока,
+    //найденного двоичным поиском по числу живых строк перед блоками
+    int liveRow(int ordinal) {
+        Objects.checkIndex(ordinal, liveCount());
+        if (deletedCount == 0) {
+            return ordinal;
+        }
+        OrdinalIndex index = currentOrdinalIndex();
+
+        int at;
+        int row;
+        if (index.ordinal >= 0 && Math.abs(index.ordinal - ordinal) < ORDINAL_BLOCK) {
+            at = index.ordinal;
+            row = index.row;
+        } else {
+            //последний блок, перед которым не больше ordinal живых строк: запись в нём
+            int low = 0;
+            int high = index.liveBefore.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (index.liveBefore[middle] <= ordinal) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            int block = low;
+            at = index.liveBefore[block];
+            row = nextLive(block * ORDINAL_BLOCK);
+        }
+        while (at < ordinal) {
+            row = nextLive(row + 1);
+            at++;
+        }
+        while (at > ordinal) {
+            row = deleted.previousClearBit(row - 1);
+            at--;
+        }
+        ordinalIndex = new OrdinalIndex(index.version, index.liveBefore, ordinal, row);
+        return row;
+    }
+
+    //число живых строк перед строкой row, row может быть и size()
+    int liveOrdinal(int row) {
+        Objects.checkIndex(row, rowCount + 1);
+        if (deletedCount == 0) {
+            return row;
+        }
+        if (row == rowCount) {
+            return liveCount();
+        }
+        int start = row / ORDINAL_BLOCK * ORDINAL_BLOCK;
+        int ordinal = currentOrdinalIndex().liveBefore[row / ORDINAL_BLOCK] + (row - start);
+        for (int d = deleted.nextSetBit(start); d >= 0 && d < row; d = deleted.nextSetBit(d + 1)) {
+            ordinal--;
+        }
+        return ordinal;
+    }
+
+    private OrdinalIndex currentOrdinalIndex() {
+        OrdinalIndex index = ordinalIndex;
+        if (index == null || index.version != version) {
+            index = new OrdinalIndex(version, countLiveBefore(), -1, -1);
+            ordinalIndex = index;
+        }
+        return index;
+    }
+
+    private int[] countLiveBefore() {
+        int blocks = (rowCount + ORDINAL_BLOCK - 1) / ORDINAL_BLOCK;
+        int[] liveBefore = new int[blocks];
+        for (int row = deleted.nextSetBit(0); row >= 0 && row < rowCount; row = deleted.nextSetBit(row + 1)) {
+            int block = row / ORDINAL_BLOCK + 1;
+            if (block < blocks) {
+                liveBefore[block]++;
+            }
+        }
+        //сейчас в liveBefore число удалённых строк в предыдущем блоке, переводим в живые до блока
+        int deletedBefore = 0;
+        for (int block = 0; block < blocks; block++) {
+            deletedBefore += liveBefore[block];
+            liveBefore[block] = block * ORDINAL_BLOCK - deletedBefore;
+        }
+        return liveBefore;
+    }
+
+    //значения записи в порядке колонок, уже приведённые к их типам
+    Object[] normalizeRow(Map<String, Object> record) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].normalize(record.get(names.get(i)));
+        }
+        return values;
+    }
+
+    Object normalize(int column, Object value) {
+        return columns[column].normalize(value);
+    }
+
+    int appendRow(Object[] values) {
+        int row = rowCount;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].set(row, values[i]);
+        }
+        rowCount++;
+        return row;
+    }
+
+    Object get(int row, int column) {
+        return columns[column].get(row);
+    }
+
+    Object get(int row, String name) {
+        int column = columnIndex(name);
+        return column < 0 ? null : get(row, column);
+    }
+
+    void set(int row, int column, Object value) {
+        columns[column].set(row, value);
+    }
+
+    ColumnData column(int column) {
+        return columns[column];
+    }
+
+    //номера живых строк по порядку
+    int[] liveRows() {
+        int[] rows = new int[liveCount()];
+        int count = 0;
+        for (int row = nextLive(0); row >= 0; row = nextLive(row + 1)) {
+            rows[count++] = row;
+        }
+        return rows;
+    }
+
+    //уплотнённая копия: только живые строки, само хранилище не меняется
+    ColumnStore compactedCopy() {
+        int[] live = liveRows();
+        return copyRows(live, live.length);
+    }
+
+    //пустое хранилище с теми же колонками
+    ColumnStore emptyCopy() {
+        return copyRows(NO_ROWS, 0);
+    }
+
+    private ColumnStore copyRows(int[] rows, int count) {
+        ColumnData[] retained = new ColumnData[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            retained[i] = columns[i].copyRows(rows, count);
+        }
+        return restore(names, retained, new BitSet(), count);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,293 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+//потоковый импорт CSV: файл разбирается параллельно кусками (CsvReader), в памяти держатся
+//только заголовки, образец первых строк для определения типов, несколько кусков в разборе
+//и текущая пачка из batchSize записей, поэтому расход памяти не зависит от размера файла
+//можно вызывать и без интерфейса: CsvImporter.importFile(file, database)
+public class CsvImporter implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final int SAMPLE_ROWS = 1000;
+    private static final int MAX_REPORTED_ERRORS = 50;
+
+    private final CsvReader reader;
+    private final List<String> headers;
+    //образец: первые строки файла, по ним определяются типы, затем они импортируются первыми
+    private final List<String[]> sample = new ArrayList<>();
+    private final List<Integer> sampleLines = new ArrayList<>();
+    private CsvReader.Chunk chunk;
+    private int chunkRow;
+    private int lineNumber;
+
+    //кодировка по умолчанию системы, как у FileReader; файл с меткой UTF-8 читается как UTF-8
+    public CsvImporter(File file) throws IOException {
+        this(file, Charset.defaultCharset());
+    }
+
+    public CsvImporter(File file, Charset charset) throws IOException {
+        reader = new CsvReader(file, charset);
+        try {
+            String[] header = nextRow();
+            if (header == null) {
+                throw new IOException("CSV файл пуст или не содержит данных");
+            }
+            if (header.length == 0) {
+                throw new IOException("CSV файл не содержит заголовков");
+            }
+            headers = List.of(header);
+            String[] row;
+            while (sample.size() < SAMPLE_ROWS && (row = nextRow()) != null) {
+                sample.add(fitRow(row));
+                sampleLines.add(lineNumber);
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    //итог импорта: число добавленных записей, ошибок и тексты первых ошибок
+    public static class Result {
+        private int successCount;
+        private int errorCount;
+        private final List<String> errors = new ArrayList<>();
+
+        public int getSuccessCount() { return successCount; }
+        public int getErrorCount() { return errorCount; }
+        public List<String> getErrors() { return errors; }
+
+        private void error(int line, String message) {
+            error("Строка " + line + ": " + message);
+        }
+
+        private void error(String message) {
+            errorCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(message);
+            }
+        }
+    }
+
+    //импорт без интерфейса: в пустой базе колонки создаются по образцу, без первичного ключа
+    public static Result importFile(File file, Database database) throws IOException {
+        try (CsvImporter importer = new CsvImporter(file)) {
+            if (database.getColumns().isEmpty()) {
+                Map<String, Class<?>> types = importer.detectColumnTypes();
+                for (String header : importer.getHeaders()) {
+                    database.addColumn(header, types.get(header), false);
+                }
+            }
+            return importer.importInto(database, DEFAULT_BATCH_SIZE);
+        }
+    }
+
+    //ход импорта: число обработанных записей и прочитанная часть файла;
+    //false останавливает импорт, добавленные им записи при этом отменяются
+    public interface Progress {
+        boolean update(int records, long bytesRead, long totalBytes);
+    }
+
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    //типы колонок по образцу первых строк
+    public Map<String, Class<?>> detectColumnTypes() {
+        Map<String, Class<?>> types = new HashMap<>();
+
+        for (int column = 0; column < headers.size(); column++) {
+            Class<?> type = String.class;
+
+            boolean allIntegers = !sample.isEmpty();
+            boolean allDoubles = !sample.isEmpty();
+            boolean allBooleans = !sample.isEmpty();
+
+            for (String[] row : sample) {
+                String value = row[column];
+                if (value.isEmpty()) continue;
+
+                if (allIntegers) {
+                    try {
+                        Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        allIntegers = false;
+                    }
+                }
+
+                if (allDoubles) {
+                    try {
+                        Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        allDoubles = false;
+                    }
+                }
+
+                String lowerValue = value.toLowerCase();
+                if (!lowerValue.equals("true") && !lowerValue.equals("false") &&
+                        !lowerValue.equals("1") && !lowerValue.equals("0") &&
+                        !lowerValue.equals("да") && !lowerValue.equals("нет")) {
+                    allBooleans = false;
+                }
+            }
+
+            if (allIntegers) {
+                type = Integer.class;
+            } else if (allDoubles) {
+                type = Double.class;
+            } else if (allBooleans) {
+                type = Boolean.class;
+            }
+
+            types.put(headers.get(column), type);
+        }
+
+        return types;
+    }
+
+    //импорт всех оставшихся строк пачками по batchSize, значения приводятся к типам колонок базы
+    public Result importInto(Database database, int batchSize) throws IOException {
+        return importInto(database, batchSize, null);
+    }
+
+    //после каждой пачки вызывается progress; если он вернул false, импорт отменяется
+    //и бросается CancellationException
+    public Result importInto(Database database, int batchSize, Progress progress) throws IOException {
+        Map<String, Class<?>> types = new HashMap<>();
+        for (DatabaseColumn column : database.getColumns()) {
+            types.put(column.getName(), column.getType());
+        }
+
+        Result result = new Result();
+        List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+        int[] batchLines = new int[batchSize];
+
+        //записи добавляются пакетной загрузкой, индексы строятся один раз в конце
+        boolean cancelled = false;
+        database.beginBulk();
+        try {
+            for (int i = 0; i < sample.size(); i++) {
+                addToBatch(sample.get(i), sampleLines.get(i), types, batch, batchLines, result);
+                if (batch.size() == batchSize) {
+                    insertBatch(database, batch, batchLines, result);
+                }
+            }
+            sample.clear();
+            sampleLines.clear();
+
+            String[] row;
+            while (!cancelled && (row = nextRow()) != null) {
+                addToBatch(fitRow(row), lineNumber, types, batch, batchLines, result);
+                if (batch.size() == batchSize) {
+                    insertBatch(database, batch, batchLines, result);
+                    cancelled = progress != null
+                            && !progress.update(result.successCount + result.errorCount, reader.bytesRead(), reader.size());
+                }
+            }
+            if (!cancelled) {
+                insertBatch(database, batch, batchLines, result);
+            }
+        } catch (IOException | RuntimeException e) {
+            //при ошибке чтения загруженная часть откатывается, наружу уходит исходная ошибка
+            try {
+                database.abortBulk();
+            } catch (RuntimeException abort) {
+                e.addSuppressed(abort);
+            }
+            throw e;
+        }
+        if (cancelled) {
+            database.abortBulk();
+            throw new CancellationException("Импорт отменён");
+        }
+        //номера строк повторов ключа уже неизвестны, сообщаем сам ключ
+        for (Object key : database.commitBulk()) {
+            result.successCount--;
+            result.error("Дублирование первичного ключа: " + key);
+        }
+        return result;
+    }
+
+    private void addToBatch(String[] row, int line, Map<String, Class<?>> types,
+                            List<Map<String, Object>> batch, int[] batchLines, Result result) {
+        Map<String, Object> record = new HashMap<>();
+        try {
+            for (int i = 0; i < headers.size(); i++) {
+                String header = headers.get(i);
+                record.put(header, convertValue(row[i], types.getOrDefault(header, String.class)));
+            }
+        } catch (Exception e) {
+            result.error(line, e.getMessage());
+            return;
+        }
+        batchLines[batch.size()] = line;
+        batch.add(record);
+    }
+
+    private void insertBatch(Database database, List<Map<String, Object>> batch, int[] batchLines, Result result) {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (database.addRecord(batch.get(i))) {
+                    result.successCount++;
+                } else {
+                    result.error(batchLines[i], "Пустой первичный ключ");
+                }
+            } catch (Exception e) {
+                result.error(batchLines[i], e.getMessage());
+            }
+        }
+        batch.clear();
+    }
+
+    //следующая запись файла, разобранная на поля, null в конце файла
+    private String[] nextRow() throws IOException {
+        while (chunk == null || chunkRow == chunk.rows.size()) {
+            chunk = reader.next();
+            chunkRow = 0;
+            if (chunk == null) {
+                return null;
+            }
+        }
+        lineNumber = chunk.lines[chunkRow];
+        return chunk.rows.get(chunkRow++);
+    }
+
+    //строка с другим числом колонок дополняется пустыми значениями или обрезается
+    private String[] fitRow(String[] row) {
+        if (row.length != headers.size()) {
+            System.out.println("Предупреждение: строка " + lineNumber + " имеет " +
+                    row.length + " колонок вместо " + headers.size());
+            int length = row.length;
+            row = Arrays.copyOf(row, headers.size());
+            if (length < row.length) {
+                Arrays.fill(row, length, row.length, "");
+            }
+        }
+        return row;
+    }
+
+    static Object convertValue(String value, Class<?> type) {
+        if (type == Integer.class) {
+            return Integer.parseInt(value.trim());
+        } else if (type == Double.class) {
+            return Double.parseDouble(value.trim());
+        } else if (type == Boolean.class) {
+            String lowerValue = value.trim().toLowerCase();
+            if (lowerValue.equals("true") || lowerValue.equals("1") || lowerValue.equals("да") || lowerValue.equals("yes")) {
+                return true;
+            } else if (lowerValue.equals("false") || lowerValue.equals("0") || lowerValue.equals("нет") || lowerValue.equals("no")) {
+                return false;
+            } else {
+                return Boolean.parseBoolean(value);
+            }
+        } else {
+            return value;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,252 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+//параллельное чтение CSV: файл читается кусками по CHUNK_BYTES, каждый кусок
+//обрезается по границе последней записи (перевод строки вне кавычек, поэтому переводы
+//строк внутри кавычек не разрывают запись) и разбирается на поля отдельной задачей
+//куски возвращаются строго по порядку файла; сколько бы ни было ядер, в разборе одновременно
+//не больше MAX_IN_FLIGHT_BYTES байт файла и в запасе не больше IN_FLIGHT буферов
+//границы ищутся по байтам, поэтому годятся кодировки, где кавычка, запятая и перевод строки
+//записываются как в ASCII (UTF-8, однобайтовые); метка порядка байт UTF-8 пропускается
+class CsvReader implements Closeable {
+    private static final int CHUNK_BYTES = 4 << 20;
+    private static final int MAX_IN_FLIGHT_BYTES = 32 << 20;
+    private static final int IN_FLIGHT = Math.max(1,
+            Math.min(Runtime.getRuntime().availableProcessors() * 2, MAX_IN_FLIGHT_BYTES / CHUNK_BYTES));
+    //запись длиннее этого почти наверняка значит незакрытую кавычку
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    //буферы кусков и буферы полей переиспользуются между задачами
+    private static final ThreadLocal<byte[][]> FIELD_BUFFER = ThreadLocal.withInitial(() -> new byte[][]{new byte[256]});
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final Queue<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+    //размеры буферов кусков в pending, по порядку
+    private final Queue<Integer> pendingBytes = new ArrayDeque<>();
+    private long inFlightBytes;
+    private final ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(IN_FLIGHT);
+    //хвост предыдущего куска после последней границы записи
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    private int nextLine = 1;
+    private boolean eof;
+
+    //разобранные записи куска и номера строк файла, с которых они начинаются
+    static final class Chunk {
+        final List<String[]> rows;
+        final int[] lines;
+
+        Chunk(List<String[]> rows, int[] lines) {
+            this.rows = rows;
+            this.lines = lines;
+        }
+    }
+
+    //файл с меткой порядка байт UTF-8 читается как UTF-8, какая бы кодировка ни была задана
+    CsvReader(File file, Charset charset) throws IOException {
+        if (!Arrays.equals("\",\n".getBytes(charset), "\",\n".getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("Кодировка " + charset.name() + " не поддерживается для CSV");
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer start = ByteBuffer.allocate(UTF8_BOM.length);
+            while (start.hasRemaining() && channel.read(start) >= 0) {
+                //читаем начало файла
+            }
+            boolean bom = !start.hasRemaining() && Arrays.equals(start.array(), UTF8_BOM);
+            this.charset = bom ? StandardCharsets.UTF_8 : charset;
+            channel.position(bom ? UTF8_BOM.length : 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //следующий кусок по порядку файла, null когда файл закончился
+    Chunk next() throws IOException {
+        while (!eof && (pending.isEmpty()
+                || pending.size() < IN_FLIGHT && inFlightBytes + CHUNK_BYTES <= MAX_IN_FLIGHT_BYTES)) {
+            submitNext();
+        }
+        CompletableFuture<Chunk> head = pending.poll();
+        if (head == null) {
+            return null;
+        }
+        inFlightBytes -= pendingBytes.remove();
+        try {
+            return head.join();
+        } catch (CompletionException e) {
+            throw new IOException("Ошибка разбора CSV: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    //читаем очередной кусок, находим последнюю границу записи и отдаём его на разбор
+    private void submitNext() throws IOException {
+        byte[] buffer = buffers.poll();
+        //после хвоста прошлого куска в буфере должно остаться место хотя бы на полкуска
+        if (buffer == null || buffer.length - carryLength < CHUNK_BYTES / 2) {
+            buffer = new byte[Math.max(CHUNK_BYTES, carryLength + CHUNK_BYTES / 2)];
+        }
+        System.arraycopy(carry, 0, buffer, 0, carryLength);
+        int length = carryLength;
+
+        int boundary;
+        int lines;
+        while (true) {
+            length = fill(buffer, length);
+            //кусок начинается с начала записи, поэтому кавычки считаем с нуля
+            boolean inQuotes = false;
+            boundary = 0;
+            lines = 0;
+            int newlines = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n') {
+                    newlines++;
+                    if (!inQuotes) {
+                        boundary = i + 1;
+                        lines = newlines;
+                    }
+                }
+            }
+            if (eof) {
+                boundary = length;
+                lines = newlines;
+                break;
+            }
+            if (boundary > 0) {
+                break;
+            }
+            if (length >= MAX_RECORD_BYTES) {
+                throw new IOException("Ошибка разбора CSV: запись со строки " + nextLine + " длиннее "
+                        + (MAX_RECORD_BYTES >> 20) + " МБ, вероятно, не закрыта кавычка");
+            }
+            //запись длиннее куска: увеличиваем буфер и дочитываем
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_RECORD_BYTES + CHUNK_BYTES));
+        }
+
+        carryLength = length - boundary;
+        if (carry.length < carryLength) {
+            carry = new byte[carryLength];
+        }
+        System.arraycopy(buffer, boundary, carry, 0, carryLength);
+
+        byte[] data = buffer;
+        int end = boundary;
+        int firstLine = nextLine;
+        nextLine += lines;
+        Charset encoding = charset;
+        pending.add(CompletableFuture.supplyAsync(() -> {
+            Chunk chunk = parse(data, end, firstLine, encoding);
+            //в запас возвращаются только буферы обычного размера
+            if (data.length == CHUNK_BYTES) {
+                buffers.offer(data);
+            }
+            return chunk;
+        }));
+        pendingBytes.add(data.length);
+        inFlightBytes += data.length;
+    }
+
+    private int fill(byte[] buffer, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, length, buffer.length - length);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        return target.position();
+    }
+
+    //разбор куска: поле в кавычках может содержать запятые и переводы строк,
+    //удвоенная кавычка внутри кавычек даёт саму кавычку; пустые строки пропускаются
+    static Chunk parse(byte[] data, int length, int firstLine, Charset charset) {
+        List<String[]> rows = new ArrayList<>();
+        int[] lines = new int[64];
+        List<String> fields = new ArrayList<>();
+        byte[][] scratch = FIELD_BUFFER.get();
+        int line = firstLine;
+        int pos = 0;
+
+        while (pos < length) {
+            int recordLine = line;
+            fields.clear();
+            boolean endOfRecord = false;
+            while (!endOfRecord) {
+                byte[] field = scratch[0];
+                int size = 0;
+                boolean inQuotes = false;
+                while (pos < length) {
+                    byte b = data[pos];
+                    if (b == '"') {
+                        if (inQuotes && pos + 1 < length && data[pos + 1] == '"') {
+                            pos++;
+                        } else {
+                            inQuotes = !inQuotes;
+                            pos++;
+                            continue;
+                        }
+                    } else if (!inQuotes && (b == ',' || b == '\n')) {
+                        break;
+                    } else if (b == '\n') {
+                        line++;
+                    }
+                    if (size == field.length) {
+                        field = scratch[0] = Arrays.copyOf(field, size * 2);
+                    }
+                    field[size++] = b;
+                    pos++;
+                }
+                fields.add(new String(field, 0, size, charset).trim());
+                if (pos < length && data[pos] == ',') {
+                    pos++;
+                } else {
+                    if (pos < length) {
+                        line++;
+                    }
+                    pos++;
+                    endOfRecord = true;
+                }
+            }
+
+            if (fields.size() == 1 && fields.getFirst().isEmpty()) {
+                continue;
+            }
+            if (rows.size() == lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+            lines[rows.size()] = recordLine;
+            rows.add(fields.toArray(new String[0]));
+        }
+        return new Chunk(rows, Arrays.copyOf(lines, rows.size()));
+    }
+
+    //сколько байт файла уже отдано на разбор
+    long bytesRead() throws IOException {
+        return channel.position() - carryLength;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
\ No newline at end of file
@@ -1,99 +1,374 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 
-public class Database implements Serializable {
+//многопоточность: все открытые методы атомарны относительно друг друга. Изменения выполняются
+//под блокировкой записи StampedLock, поиск и запросы - под блокировкой чтения и идут параллельно,
+//число записей читается оптимистично, без блокировки. Уникальность ключа в addRecord
+//проверяется под той же блокировкой записи, что и добавление, поэтому из двух одновременных
+//добавлений одного ключа проходит ровно одно. Списки результатов ленивые: значение записи читается
+//под блокировкой чтения при обращении к нему и отражает последнее изменение строки
+public class Database implements Serializable, Closeable {
     private static final long serialVersionUID = 1L;
 
-    private List<DatabaseColumn> columns;
-    private List<Map<String, Object>> records;
-    private String primaryKey;
+    private static final int COMPACTION_MIN_DELETED = 1024;
+    //столько раз фоновое уплотнение пробует успеть между изменениями, потом уплотняет под блокировкой
+    private static final int COMPACTION_ATTEMPTS = 3;
+    //размер журнала, после которого commit делает контрольную точку
+    private static final long CHECKPOINT_LOG_BYTES = 8L * 1024 * 1024;
+    //доля кучи под кэш страниц по умолчанию для openPaged: страничный режим выбирают для файлов
+    //больше четверти кучи, а остальная куча нужна индексам и изменённым значениям
+    private static final int PAGE_CACHE_HEAP_SHARE = 8;
 
-    private transient Map<Object, Integer> primaryKeyIndex;
-    private transient Map<String, Map<Object, Set<Integer>>> fieldIndexes;
-    private transient Map<String, Map<String, Set<Integer>>> textPartialIndex;
+    //records оставлено для чтения файлов, сохранённых до перехода на колоночное хранилище
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("columns", List.class),
+            new ObjectStreamField("records", List.class),
+            new ObjectStreamField("primaryKey", String.class),
+            new ObjectStreamField("store", ColumnStore.class),
+            new ObjectStreamField("checkpointLsn", long.class)
+    };
+
+    //список колонок не меняется на месте, а заменяется, поэтому getColumns() читается без блокировки
+    private volatile List<DatabaseColumn> columns;
+    private ColumnStore store;
+    private volatile String primaryKey;
+    //LSN последней операции журнала, которая уже вошла в файл базы
+    private long checkpointLsn;
+
+    private transient volatile WriteAheadLog log;
+    private transient volatile File file;
+    //страницы колонок при открытии через openPaged, иначе null
+    private transient PageCache pageCache;
+    //индексов из файла нет или они устарели: до построения индексы не ведутся
+    private transient boolean indexesDeferred;
+    //индексы, строящиеся в фоне; обращения к индексам ждут его окончания
+    private transient volatile CompletableFuture<Void> indexBuild;
+    //фоновое уплотнение или null
+    private transient volatile CompletableFuture<Void> compaction;
+    //число завершённых изменений под блокировкой записи: по нему уплотнение видит, что снимок устарел
+    private transient long modifications;
+    //растёт при каждой перенумерации строк хранилища (уплотнение, очистка)
+    private transient int rowNumbering;
+    private transient KeyIndex primaryKeyIndex;
+    private transient Map<String, Map<Object, RoaringBitmap>> fieldIndexes;
+    private transient Map<String, TextIndex> textIndexes;
+    private transient Map<String, TrigramIndex> trigramIndexes;
+    //разбиение строк на слова для словарного индекса
+    private transient volatile Tokenizer tokenizer;
+    //числовые ключи по возрастанию для плотных порядковых номеров, null без числового ключа
+    private transient OrderStatisticTree keyOrder;
+    //пакетная загрузка: строки с bulkStart добавлены без индексов и журнала
+    private transient boolean bulk;
+    private transient int bulkStart;
+    private transient List<ChangeListener> listeners;
+    private transient StampedLock lock;
+    //блокировка, которую держит текущий поток (true - запись): повторный вход её не берёт,
+    //поэтому методы базы можно вызывать из слушателей и изнутри других методов
+    private transient ThreadLocal<Boolean> held;
+
+    //уведомления об изменении записей; номера строк - номера строк хранилища, их место
+    //в getRecords() даёт ordinalOf. Вызываются в потоке, который меняет базу, сразу после
+    //изменения и до уплотнения, поэтому номера строк в них ещё действительны
+    public interface ChangeListener {
+        //добавлены строки fromRow..toRow-1, удалённые среди них не считаются
+        void rowsInserted(int fromRow, int toRow);
+
+        void rowUpdated(int row);
+
+        //удалены строки rows, по возрастанию
+        void rowsDeleted(int[] rows);
+
+        //записи изменились целиком (очистка) или перенумерованы строки хранилища (уплотнение):
+        //прежние номера строк больше не действительны
+        void reloaded();
+    }
 
     public Database() {
         this.columns = new ArrayList<>();
-        this.records = new ArrayList<>();
+        this.store = new ColumnStore();
+        this.tokenizer = Tokenizer.DEFAULT;
+        initializeLocks();
         initializeIndexes();
     }
 
+    private void initializeLocks() {
+        lock = new StampedLock();
+        held = new ThreadLocal<>();
+        listeners = new CopyOnWriteArrayList<>();
+    }
+
+    interface Locked<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    interface LockedAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    //действие под блокировкой чтения; поток, уже держащий блокировку, выполняет его сразу
+    <T, E extends Exception> T read(Locked<T, E> action) throws E {
+        if (held.get() != null) {
+            return action.run();
+        }
+        long stamp = lock.readLock();
+        held.set(Boolean.FALSE);
+        try {
+            return action.run();
+        } finally {
+            held.remove();
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private <T, E extends Exception> T write(Locked<T, E> action) throws E {
+        Boolean current = held.get();
+        if (current != null) {
+            if (!current) {
+                throw new IllegalStateException("Изменение базы во время чтения невозможно");
+            }
+            return action.run();
+        }
+        long stamp = lock.writeLock();
+        held.set(Boolean.TRUE);
+        try {
+            return action.run();
+        } finally {
+            modifications++;
+            held.remove();
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private <E extends Exception> void update(LockedAction<E> action) throws E {
+        write(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    //оптимистичное чтение: без блокировки, а если за это время была запись - ещё раз под блокировкой
+    //годится только для действий, которые читают отдельные поля-числа и не могут упасть
+    //на полуизменённых структурах: обходить коллекции так нельзя
+    private int readOptimistic(IntSupplier action) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int result = action.getAsInt();
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+        return read(action::getAsInt);
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        ObjectOutputStream.PutField fields = oos.putFields();
+        fields.put("columns", columns);
+        fields.put("primaryKey", primaryKey);
+        fields.put("store", store);
+        fields.put("checkpointLsn", checkpointLsn);
+        oos.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
-        ois.defaultReadObject();
+        ObjectInputStream.GetField fields = ois.readFields();
+        columns = (List<DatabaseColumn>) fields.get("columns", null);
+        primaryKey = (String) fields.get("primaryKey", null);
+        store = (ColumnStore) fields.get("store", null);
+        checkpointLsn = fields.get("checkpointLsn", 0L);
+
+        //старый формат: записи лежат списком HashMap, переносим их в колонки
+        if (store == null) {
+            store = new ColumnStore();
+            for (DatabaseColumn column : columns) {
+                store.addColumn(column.getName(), column.getType());
+            }
+            List<Map<String, Object>> records = (List<Map<String, Object>>) fields.get("records", null);
+            if (records != null) {
+                for (Map<String, Object> record : records) {
+                    store.appendRow(store.normalizeRow(record));
+                }
+            }
+        }
+
+        tokenizer = Tokenizer.DEFAULT;
+        initializeLocks();
         initializeIndexes();
         rebuildIndexes();
     }
 
     private void initializeIndexes() {
-        this.primaryKeyIndex = new ConcurrentHashMap<>();
+        this.primaryKeyIndex = KeyIndex.forType(primaryKeyType());
         this.fieldIndexes = new ConcurrentHashMap<>();
-        this.textPartialIndex = new ConcurrentHashMap<>();
+        this.textIndexes = new ConcurrentHashMap<>();
+        this.trigramIndexes = new ConcurrentHashMap<>();
+        this.keyOrder = isNumericPrimaryKey() ? new OrderStatisticTree() : null;
     }
 
     private void rebuildIndexes() {
-        primaryKeyIndex.clear();
-        fieldIndexes.clear();
-        textPartialIndex.clear();
+        if (indexesDeferred) return;
+        startIndexBuild();
+        awaitIndexes();
+    }
+
+    //построение индексов заново: каждая колонка строится отдельной задачей в ForkJoinPool,
+    //внутри колонки строки делятся на диапазоны (IndexBuilder), частичные индексы сливаются
+    //и устанавливаются одной заменой, так что число задач растёт с размером таблицы, а не только с числом колонок
+    private void startIndexBuild() {
+        indexesDeferred = false;
+        initializeIndexes();
+
+        indexBuild = buildIndexes(0, store.size());
+    }
+
+    //индексы строк from..to, частичные индексы колонок сливаются с уже построенными
+    private CompletableFuture<Void> buildIndexes(int from, int to) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (DatabaseColumn column : columns) {
+            boolean keyColumn = column.getName().equals(primaryKey);
+            IndexBuilder builder = new IndexBuilder(store, store.columnIndex(column.getName()),
+                    keyColumn ? column.getType() : null, tokenizer, from, to);
+            tasks.add(CompletableFuture.supplyAsync(builder::invoke, pool)
+                    .thenAccept(partial -> installPartial(column, partial, keyColumn)));
+        }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void installPartial(DatabaseColumn column, IndexBuilder.Partial partial, boolean keyColumn) {
+        String fieldName = column.getName();
+        if (!partial.values.isEmpty()) {
+            Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.computeIfAbsent(fieldName, k -> createFieldIndex(column));
+            if (fieldIndex.isEmpty()) {
+                fieldIndex.putAll(partial.values);
+            } else {
+                partial.values.forEach((value, rows) -> fieldIndex.merge(value, rows, Database::union));
+            }
+        }
+        if (!partial.trigrams.isEmpty()) {
+            TrigramIndex trigramIndex = trigramIndexes.putIfAbsent(fieldName, partial.trigrams);
+            if (trigramIndex != null) {
+                trigramIndex.merge(partial.trigrams);
+            }
+        }
+        if (!partial.words.isEmpty()) {
+            TextIndex textIndex = textIndexes.putIfAbsent(fieldName, partial.words);
+            if (textIndex != null) {
+                textIndex.merge(partial.words);
+            }
+        }
+        if (keyColumn) {
+            if (primaryKeyIndex.isEmpty()) {
+                primaryKeyIndex = partial.keys;
+            } else {
+                primaryKeyIndex.putAll(partial.keys);
+            }
+            if (keyOrder != null) {
+                if (keyOrder.size() == 0) {
+                    keyOrder = OrderStatisticTree.of(partial.keys.keys());
+                } else {
+                    partial.keys.forEach((key, row) -> keyOrder.add(key));
+                }
+            }
+        }
+    }
+
+    private static RoaringBitmap union(RoaringBitmap existing, RoaringBitmap added) {
+        existing.or(added);
+        return existing;
+    }
+
+    private void awaitIndexes() {
+        CompletableFuture<Void> build = indexBuild;
+        if (build == null) return;
+        try {
+            build.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Ошибка построения индексов: " + e.getCause().getMessage(), e.getCause());
+        }
+        indexBuild = null;
+    }
 
-        for (int i = 0; i < records.size(); i++) {
-            Map<String, Object> record = records.get(i);
-            indexRecord(record, i);
+    //индексы из файла, FdbFormat уже собрал их в тех же отображениях, что ведёт база
+    private void installIndexes(FdbFormat.Indexes indexes) {
+        initializeIndexes();
+        if (indexes.primaryKey != null) {
+            primaryKeyIndex = indexes.primaryKey;
+            if (keyOrder != null) {
+                keyOrder = OrderStatisticTree.of(primaryKeyIndex.keys());
+            }
         }
+        fieldIndexes.putAll(indexes.fields);
+        trigramIndexes.putAll(indexes.trigrams);
+        textIndexes.putAll(indexes.words);
     }
 
     //индексируем все поля
-    private void indexRecord(Map<String, Object> record, int index) {
+    private void indexRecord(int index) {
+        if (indexesDeferred) return;
         if (primaryKey != null) {
-            Object keyValue = record.get(primaryKey);
-            if (keyValue != null) {
-                primaryKeyIndex.put(keyValue, index);
+            Object keyValue = store.get(index, primaryKey);
+            if (keyValue != null && primaryKeyIndex.put(keyValue, index) == KeyIndex.ABSENT && keyOrder != null) {
+                keyOrder.add(keyValue);
             }
         }
 
         for (DatabaseColumn column : columns) {
-            String fieldName = column.getName();
-            Object value = record.get(fieldName);
+            indexValue(column, store.get(index, column.getName()), index);
+        }
+    }
 
-            if (value != null) {
-                fieldIndexes
-                        .computeIfAbsent(fieldName, k -> new ConcurrentHashMap<>())
-                        .computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet())
-                        .add(index);
+    private void indexValue(DatabaseColumn column, Object value, int index) {
+        if (value == null) return;
+        String fieldName = column.getName();
 
-                if (value instanceof String) {
-                    String text = ((String) value).toLowerCase();
-                    String[] words = text.split("\\s+");
-                    for (String word : words) {
-                        if (word.length() > 2) {
-                            textPartialIndex
-                                    .computeIfAbsent(fieldName, k -> new ConcurrentHashMap<>())
-                                    .computeIfAbsent(word, k -> ConcurrentHashMap.newKeySet())
-                                    .add(index);
-                        }
-                    }
-                }
-            }
+        fieldIndexes
+                .computeIfAbsent(fieldName, k -> createFieldIndex(column))
+                .computeIfAbsent(value, k -> new RoaringBitmap())
+                .add(index);
+
+        if (value instanceof String) {
+            trigramIndexes
+                    .computeIfAbsent(fieldName, k -> new TrigramIndex())
+                    .add((String) value, index);
+
+            textIndexes
+                    .computeIfAbsent(fieldName, k -> new TextIndex())
+                    .add((String) value, index, tokenizer);
         }
     }
 
     //удалённую запись удаляем и из индексов
-    private void removeRecordFromIndexes(Map<String, Object> record, int index) {
+    private void removeRecordFromIndexes(int index) {
+        if (indexesDeferred) return;
         if (primaryKey != null) {
-            Object keyValue = record.get(primaryKey);
-            if (keyValue != null) {
-                primaryKeyIndex.remove(keyValue);
+            Object keyValue = store.get(index, primaryKey);
+            if (keyValue != null && primaryKeyIndex.remove(keyValue) != KeyIndex.ABSENT && keyOrder != null) {
+                keyOrder.remove(keyValue);
             }
         }
 
         for (DatabaseColumn column : columns) {
             String fieldName = column.getName();
-            Object value = record.get(fieldName);
+            Object value = store.get(index, fieldName);
 
             if (value != null) {
-                Map<Object, Set<Integer>> fieldIndex = fieldIndexes.get(fieldName);
+                Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.get(fieldName);
                 if (fieldIndex != null) {
-                    Set<Integer> indices = fieldIndex.get(value);
+                    RoaringBitmap indices = fieldIndex.get(value);
                     if (indices != null) {
                         indices.remove(index);
                         if (indices.isEmpty()) {
@@ -103,186 +378,432 @@ public class Database implements Serializable {
                 }
 
                 if (value instanceof String) {
-                    String text = ((String) value).toLowerCase();
-                    String[] words = text.split("\\s+");
-                    Map<String, Set<Integer>> partialIndex = textPartialIndex.get(fieldName);
-                    if (partialIndex != null) {
-                        for (String word : words) {
-                            if (word.length() > 2) {
-                                Set<Integer> wordIndices = partialIndex.get(word);
-                                if (wordIndices != null) {
-                                    wordIndices.remove(index);
-                                    if (wordIndices.isEmpty()) {
-                                        partialIndex.remove(word);
-                                    }
-                                }
-                            }
-                        }
+                    TrigramIndex trigramIndex = trigramIndexes.get(fieldName);
+                    if (trigramIndex != null) {
+                        trigramIndex.remove((String) value, index);
+                    }
+
+                    TextIndex textIndex = textIndexes.get(fieldName);
+                    if (textIndex != null) {
+                        textIndex.remove((String) value, index, tokenizer);
                     }
                 }
             }
         }
     }
 
-    //обновляем после удаления записи
-    private void updateIndexesAfterDeletion(List<Integer> removedIndices) {
-        if (removedIndices.isEmpty()) return;
+    //упорядоченный индекс хранит значения в skip-list, что даёт диапазоны и обход по порядку
+    static Map<Object, RoaringBitmap> createFieldIndex(DatabaseColumn column) {
+        if (column.getIndexType() == DatabaseColumn.IndexType.SORTED) {
+            return new ConcurrentSkipListMap<>();
+        }
+        return new ConcurrentHashMap<>();
+    }
 
-        removedIndices.sort(Collections.reverseOrder());
+    //хранилище уплотняется, когда удалённых строк стало больше, чем живых
+    private boolean needsCompaction() {
+        return store.deletedCount() >= COMPACTION_MIN_DELETED && store.deletedCount() > store.liveCount();
+    }
 
-        for (String fieldName : fieldIndexes.keySet()) {
-            Map<Object, Set<Integer>> fieldIndex = fieldIndexes.get(fieldName);
-            for (Set<Integer> indices : fieldIndex.values()) {
-                Set<Integer> updatedIndices = ConcurrentHashMap.newKeySet();
-                for (int index : indices) {
-                    int updatedIndex = index;
-                    for (int removedIndex : removedIndices) {
-                        if (updatedIndex > removedIndex) {
-                            updatedIndex--;
-                        }
-                    }
-                    updatedIndices.add(updatedIndex);
+    //уплотнение идёт в фоне, удаление его не ждёт
+    private void scheduleCompaction() {
+        if (compaction == null && needsCompaction()) {
+            compaction = CompletableFuture.runAsync(this::compactInBackground);
+        }
+    }
+
+    //копия живых строк и индексы по ней строятся под блокировкой чтения и без блокировки,
+    //а подменяются одной короткой записью; если база за это время менялась, снимок
+    //устарел и делается заново, а после COMPACTION_ATTEMPTS попыток уплотнение идёт под блокировкой записи
+    //в журнал пишется момент подмены, так что повтор журнала уплотняет в том же месте
+    private void compactInBackground() {
+        try {
+            for (int attempt = 0; attempt < COMPACTION_ATTEMPTS; attempt++) {
+                Compaction prepared = read(() -> {
+                    if (bulk || !needsCompaction()) return null;
+                    awaitIndexes();
+                    return new Compaction(modifications, store.compactedCopy(), indexesDeferred);
+                });
+                if (prepared == null) return;
+                prepared.buildIndexes();
+                boolean installed = write(() -> {
+                    if (modifications != prepared.modifications) return false;
+                    writeLog(WriteAheadLog.COMPACT, out -> { });
+                    prepared.install();
+                    notifyListeners(ChangeListener::reloaded);
+                    return true;
+                });
+                if (installed) return;
+            }
+            update(() -> {
+                if (!bulk && needsCompaction()) {
+                    writeLog(WriteAheadLog.COMPACT, out -> { });
+                    applyCompact();
                 }
-                indices.clear();
-                indices.addAll(updatedIndices);
+            });
+        } finally {
+            compaction = null;
+        }
+    }
+
+    private void applyCompact() {
+        store = store.compactedCopy();
+        rowNumbering++;
+        rebuildIndexes();
+        notifyListeners(ChangeListener::reloaded);
+    }
+
+    //ждёт фонового уплотнения, если оно идёт
+    void awaitCompaction() {
+        CompletableFuture<Void> current = compaction;
+        if (current != null) {
+            current.join();
+        }
+    }
+
+    //уплотнённая копия хранилища и индексы по ней, ещё не подставленные в базу
+    private final class Compaction {
+        final long modifications;
+        final ColumnStore store;
+        final boolean indexesDeferred;
+        final List<DatabaseColumn> columns = Database.this.columns;
+        final String primaryKey = Database.this.primaryKey;
+        final Tokenizer tokenizer = Database.this.tokenizer;
+        final Map<String, Map<Object, RoaringBitmap>> fields = new ConcurrentHashMap<>();
+        final Map<String, TrigramIndex> trigrams = new ConcurrentHashMap<>();
+        final Map<String, TextIndex> words = new ConcurrentHashMap<>();
+        volatile KeyIndex keys;
+        volatile OrderStatisticTree keyOrder;
+
+        Compaction(long modifications, ColumnStore store, boolean indexesDeferred) {
+            this.modifications = modifications;
+            this.store = store;
+            this.indexesDeferred = indexesDeferred;
+            this.keys = KeyIndex.forType(primaryKeyType());
+        }
+
+        //по колонке на задачу, как и buildIndexes, но в свои отображения
+        void buildIndexes() {
+            if (indexesDeferred) return;
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (DatabaseColumn column : columns) {
+                boolean keyColumn = column.getName().equals(primaryKey);
+                IndexBuilder builder = new IndexBuilder(store, store.columnIndex(column.getName()),
+                        keyColumn ? column.getType() : null, tokenizer, 0, store.size());
+                tasks.add(CompletableFuture.supplyAsync(builder::invoke, ForkJoinPool.commonPool())
+                        .thenAccept(partial -> accept(column, partial, keyColumn)));
             }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
         }
 
-        for (String fieldName : textPartialIndex.keySet()) {
-            Map<String, Set<Integer>> partialIndex = textPartialIndex.get(fieldName);
-            for (Set<Integer> indices : partialIndex.values()) {
-                Set<Integer> updatedIndices = ConcurrentHashMap.newKeySet();
-                for (int index : indices) {
-                    int updatedIndex = index;
-                    for (int removedIndex : removedIndices) {
-                        if (updatedIndex > removedIndex) {
-                            updatedIndex--;
-                        }
-                    }
-                    updatedIndices.add(updatedIndex);
+        private void accept(DatabaseColumn column, IndexBuilder.Partial partial, boolean keyColumn) {
+            String fieldName = column.getName();
+            if (!partial.values.isEmpty()) {
+                Map<Object, RoaringBitmap> fieldIndex = createFieldIndex(column);
+                fieldIndex.putAll(partial.values);
+                fields.put(fieldName, fieldIndex);
+            }
+            if (!partial.trigrams.isEmpty()) {
+                trigrams.put(fieldName, partial.trigrams);
+            }
+            if (!partial.words.isEmpty()) {
+                words.put(fieldName, partial.words);
+            }
+            if (keyColumn) {
+                keys = partial.keys;
+                if (isNumericPrimaryKey()) {
+                    keyOrder = OrderStatisticTree.of(partial.keys.keys());
                 }
-                indices.clear();
-                indices.addAll(updatedIndices);
             }
         }
 
-        if (primaryKey != null) {
-            primaryKeyIndex.clear();
-            for (int i = 0; i < records.size(); i++) {
-                Map<String, Object> record = records.get(i);
-                Object keyValue = record.get(primaryKey);
-                if (keyValue != null) {
-                    primaryKeyIndex.put(keyValue, i);
-                }
+        //под блокировкой записи, база с момента снимка не менялась
+        void install() {
+            Database.this.store = store;
+            rowNumbering++;
+            if (indexesDeferred) return;
+            initializeIndexes();
+            primaryKeyIndex = keys;
+            if (keyOrder != null) {
+                Database.this.keyOrder = keyOrder;
             }
+            fieldIndexes.putAll(fields);
+            trigramIndexes.putAll(trigrams);
+            textIndexes.putAll(words);
         }
     }
 
     public void addColumn(String name, Class<?> type, boolean isPrimaryKey) {
-        if (isPrimaryKey && primaryKey != null) {
-            throw new IllegalArgumentException("Первичный ключ уже существует");
-        }
+        addColumn(name, type, isPrimaryKey, DatabaseColumn.IndexType.HASH);
+    }
+
+    public void addColumn(String name, Class<?> type, boolean isPrimaryKey, DatabaseColumn.IndexType indexType) {
+        update(() -> {
+            awaitIndexes();
+            requireNoBulk();
+            if (isPrimaryKey && primaryKey != null) {
+                throw new IllegalArgumentException("Первичный ключ уже существует");
+            }
+            if (indexType == DatabaseColumn.IndexType.SORTED && !Comparable.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("Упорядоченный индекс невозможен для типа " + type.getSimpleName());
+            }
 
-        DatabaseColumn column = new DatabaseColumn(name, type);
-        columns.add(column);
+            DatabaseColumn column = new DatabaseColumn(name, type, indexType);
+            List<DatabaseColumn> updated = new ArrayList<>(columns);
+            updated.add(column);
+            columns = updated;
+            store.addColumn(name, type);
 
-        if (isPrimaryKey) {
-            primaryKey = name;
-            rebuildIndexes();
-        }
+            if (isPrimaryKey) {
+                primaryKey = name;
+                rebuildIndexes();
+            }
+
+            //схема в журнал не пишется, поэтому после её изменения файл базы сохраняется целиком
+            if (log != null) {
+                try {
+                    saveToFile(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Ошибка сохранения схемы: " + e.getMessage(), e);
+                }
+            }
+        });
     }
 
     //добавление записи
+    //при пакетной загрузке запись только дописывается в хранилище, уникальность ключа
+    //проверяется в commitBulk, поэтому true здесь не гарантирует, что запись останется
     public boolean addRecord(Map<String, Object> record) {
-        if (primaryKey != null) {
-            Object keyValue = record.get(primaryKey);
-            if (keyValue == null) {
-                return false;
+        return write(() -> {
+            awaitIndexes();
+            Object[] values = store.normalizeRow(record);
+
+            if (primaryKey != null) {
+                Object keyValue = values[store.columnIndex(primaryKey)];
+                if (keyValue == null) {
+                    return false;
+                }
+
+                //проверка уникальности
+                if (!bulk && primaryKeyIndex.containsKey(keyValue)) {
+                    return false;
+                }
+            }
+            if (bulk) {
+                store.appendRow(values);
+                return true;
             }
 
-            //проверка уникальности
-            if (primaryKeyIndex.containsKey(keyValue)) {
-                return false;
+            writeLog(WriteAheadLog.ADD, out -> {
+                out.writeInt(values.length);
+                for (Object value : values) {
+                    ValueCodec.write(out, value);
+                }
+            });
+            applyAdd(values);
+            return true;
+        });
+    }
+
+    private void applyAdd(Object[] values) {
+        int newIndex = store.appendRow(values);
+        indexRecord(newIndex);
+        notifyListeners(listener -> listener.rowsInserted(newIndex, newIndex + 1));
+    }
+
+    //начало пакетной загрузки: addRecord только дописывает строки, без проверки ключа по индексу,
+    //обновления индексов и записи в журнал; изменять и удалять записи до commitBulk нельзя,
+    //поиск по индексам новых записей не видит
+    public void beginBulk() {
+        update(() -> {
+            awaitIndexes();
+            requireNoBulk();
+            bulk = true;
+            bulkStart = store.size();
+        });
+    }
+
+    //конец пакетной загрузки: повторы ключа отбрасываются одним проходом по хеш-таблице (остаётся
+    //первая запись, существующие в базе ключи важнее новых), индексы новых строк строятся
+    //параллельно и сливаются с имеющимися; после сбоя загрузка либо есть целиком, либо её нет
+    //возвращает ключи отброшенных записей
+    public List<Object> commitBulk() {
+        return write(() -> {
+            if (!bulk) {
+                throw new IllegalStateException("Пакетная загрузка не начата");
+            }
+            bulk = false;
+            List<Object> rejected = new ArrayList<>();
+            int from = bulkStart;
+            int to = store.size();
+
+            if (primaryKey != null) {
+                int keyColumn = store.columnIndex(primaryKey);
+                KeyIndex keys = KeyIndex.forType(primaryKeyType());
+                for (int i = store.nextLive(from); i >= 0 && i < to; i = store.nextLive(i + 1)) {
+                    Object keyValue = store.get(i, keyColumn);
+                    if (primaryKeyIndex.containsKey(keyValue) || keys.put(keyValue, i) != KeyIndex.ABSENT) {
+                        store.delete(i);
+                        rejected.add(keyValue);
+                    }
+                }
+            }
+
+            indexBuild = buildIndexes(from, to);
+            awaitIndexes();
+            notifyListeners(listener -> listener.rowsInserted(from, to));
+            finishBulk();
+            return rejected;
+        });
+    }
+
+    //отмена пакетной загрузки: добавленные строки помечаются удалёнными
+    public void abortBulk() {
+        update(() -> {
+            if (!bulk) {
+                throw new IllegalStateException("Пакетная загрузка не начата");
+            }
+            bulk = false;
+            for (int i = bulkStart; i < store.size(); i++) {
+                store.delete(i);
+            }
+            finishBulk();
+        });
+    }
+
+    //строки пакета уже заняли номера, которых нет в журнале, поэтому при подключённом
+    //журнале делается контрольная точка, иначе повтор журнала разошёлся бы с номерами строк
+    private void finishBulk() {
+        scheduleCompaction();
+        if (log != null) {
+            try {
+                saveToFile(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка сохранения пакетной загрузки: " + e.getMessage(), e);
             }
         }
+    }
 
-        records.add(new HashMap<>(record));
-        int newIndex = records.size() - 1;
-        indexRecord(record, newIndex);
-        return true;
+    //пакетная загрузка записей из итератора, возвращает ключи отброшенных повторов
+    public List<Object> bulkLoad(Iterator<Map<String, Object>> records) {
+        return write(() -> {
+            beginBulk();
+            try {
+                while (records.hasNext()) {
+                    addRecord(records.next());
+                }
+            } catch (RuntimeException e) {
+                //загрузка не удалась: уже добавленные строки убираются, индексы не строятся
+                try {
+                    abortBulk();
+                } catch (RuntimeException abort) {
+                    e.addSuppressed(abort);
+                }
+                throw e;
+            }
+            return commitBulk();
+        });
+    }
+
+    private void requireNoBulk() {
+        if (bulk) {
+            throw new IllegalStateException("Идёт пакетная загрузка, изменение невозможно до commitBulk");
+        }
     }
 
     //удаление записи (по ключевому и не ключевому значению)
     public int removeRecords(String fieldName, Object value, boolean partialMatch) {
-        Set<Integer> indicesToRemove = findRecordIndices(fieldName, value, partialMatch);
+        return write(() -> {
+            awaitIndexes();
+            return removeIndices(findRecordIndices(fieldName, value, partialMatch));
+        });
+    }
+
+    //удаление всех записей, подходящих под запрос
+    public int removeRecords(Query query) {
+        return write(() -> {
+            awaitIndexes();
+            QueryPlanner planner = new QueryPlanner(this);
+            RoaringBitmap indices = query.getWhere() != null ? planner.evaluate(query.getWhere()) : liveRows();
+            return removeIndices(indices);
+        });
+    }
 
+    //ключи оставшихся записей не меняются, их плотный порядковый номер даёт getOrdinal
+    private int removeIndices(RoaringBitmap indicesToRemove) {
+        requireNoBulk();
         if (indicesToRemove.isEmpty()) {
             return 0;
         }
 
-        List<Integer> removedIndices = new ArrayList<>(indicesToRemove);
-
-        removedIndices.sort(Collections.reverseOrder());
+        //в журнал пишутся номера строк: при повторе с той же контрольной точки они совпадают
+        writeLog(WriteAheadLog.REMOVE, out -> {
+            out.writeInt(indicesToRemove.getCardinality());
+            for (PrimitiveIterator.OfInt it = indicesToRemove.iterator(); it.hasNext(); ) {
+                out.writeInt(it.nextInt());
+            }
+        });
+        int removed = applyRemove(indicesToRemove);
+        scheduleCompaction();
+        return removed;
+    }
 
-        for (int index : removedIndices) {
-            Map<String, Object> record = records.get(index);
-            removeRecordFromIndexes(record, index);
-            records.remove(index);
+    private int applyRemove(RoaringBitmap indicesToRemove) {
+        //строки не сдвигаются: чистим индексы только удаляемых строк и помечаем их удалёнными
+        for (int index : indicesToRemove) {
+            removeRecordFromIndexes(index);
+            store.delete(index);
         }
 
-        updateIndexesAfterDeletion(removedIndices);
-
-        if (!removedIndices.isEmpty() && shouldReorderKeys(fieldName)) {
-            reorderPrimaryKeys();
+        if (!listeners.isEmpty()) {
+            int[] rows = indicesToRemove.toArray();
+            notifyListeners(listener -> listener.rowsDeleted(rows));
         }
 
-        return removedIndices.size();
+        return indicesToRemove.getCardinality();
     }
 
-    //поиск записей
-    private Set<Integer> findRecordIndices(String fieldName, Object value, boolean partialMatch) {
-        Set<Integer> result = ConcurrentHashMap.newKeySet();
+    //поиск записей, результат - новая битовая карта, которую можно менять
+    private RoaringBitmap findRecordIndices(String fieldName, Object value, boolean partialMatch) {
+        RoaringBitmap result = new RoaringBitmap();
 
         //по всем полям
         if ("ANY_FIELD".equals(fieldName)) {
             for (DatabaseColumn column : columns) {
-                result.addAll(findRecordIndices(column.getName(), value, partialMatch));
+                result.or(findRecordIndices(column.getName(), value, partialMatch));
             }
         }
         //по первичному ключу
         else if (primaryKey != null && fieldName.equals(primaryKey) && !partialMatch) {
-            Integer index = primaryKeyIndex.get(value);
-            if (index != null && index >= 0 && index < records.size()) {
+            Object key = equalityKey(fieldName, value);
+            int index = key != null ? primaryKeyIndex.get(key) : KeyIndex.ABSENT;
+            if (index != KeyIndex.ABSENT && store.isLive(index)) {
                 result.add(index);
             }
         }
-        //по частичному тексту
+        //по частичному тексту: триграммы сужают круг строк, затем проверяем само значение
         else if (partialMatch && value instanceof String) {
             String searchText = ((String) value).toLowerCase();
-            Map<String, Set<Integer>> partialIndex = textPartialIndex.get(fieldName);
-            if (partialIndex != null) {
-                for (Map.Entry<String, Set<Integer>> entry : partialIndex.entrySet()) {
-                    if (entry.getKey().contains(searchText)) {
-                        for (int index : entry.getValue()) {
-                            if (index >= 0 && index < records.size()) {
-                                result.add(index);
-                            }
-                        }
+            TrigramIndex trigramIndex = trigramIndexes.get(fieldName);
+            if (trigramIndex != null) {
+                int column = store.columnIndex(fieldName);
+                RoaringBitmap matches = result;
+                trigramIndex.candidates(searchText).forEachValue(index -> {
+                    Object candidate = store.get(index, column);
+                    if (candidate instanceof String && ((String) candidate).toLowerCase().contains(searchText)) {
+                        matches.add(index);
                     }
-                }
+                });
             }
         }
         //точный поиск по полю
         else {
-            Map<Object, Set<Integer>> fieldIndex = fieldIndexes.get(fieldName);
-            if (fieldIndex != null) {
-                Set<Integer> indices = fieldIndex.get(value);
+            Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.get(fieldName);
+            Object key = equalityKey(fieldName, value);
+            if (fieldIndex != null && key != null) {
+                RoaringBitmap indices = fieldIndex.get(key);
                 if (indices != null) {
-                    for (int index : indices) {
-                        if (index >= 0 && index < records.size()) {
-                            result.add(index);
-                        }
-                    }
+                    result = indices.copy();
                 }
             }
         }
@@ -290,61 +811,305 @@ public class Database implements Serializable {
         return result;
     }
 
+    //значение для поиска на равенство в типе колонки, как оно лежит в индексах;
+    //null, если такого значения в колонке быть не может: упорядоченный индекс сравнивает ключи
+    //через compareTo и на значении другого типа бросил бы ClassCastException
+    Object equalityKey(String fieldName, Object value) {
+        int column = store.columnIndex(fieldName);
+        if (column < 0 || value == null) return null;
+        try {
+            return store.normalize(column, value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    //поиск по диапазону, null в границе означает отсутствие ограничения с этой стороны
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private RoaringBitmap findRangeIndices(String fieldName, Object from, Object to, boolean inclusive) {
+        RoaringBitmap result = new RoaringBitmap();
+        int column = store.columnIndex(fieldName);
+        if (column < 0) return result;
+
+        Comparable lower = (Comparable) store.normalize(column, from);
+        Comparable upper = (Comparable) store.normalize(column, to);
+        if (lower != null && upper != null && lower.compareTo(upper) > 0) return result;
+
+        Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.get(fieldName);
+        if (fieldIndex instanceof NavigableMap) {
+            NavigableMap<Object, RoaringBitmap> sorted = (NavigableMap<Object, RoaringBitmap>) fieldIndex;
+            if (lower != null) sorted = sorted.tailMap(lower, inclusive);
+            if (upper != null) sorted = sorted.headMap(upper, inclusive);
+            for (RoaringBitmap indices : sorted.values()) {
+                result.or(indices);
+            }
+            return result;
+        }
+
+        //колонка без упорядоченного индекса: проверяем значения подряд
+        for (int i = store.nextLive(0); i >= 0; i = store.nextLive(i + 1)) {
+            if (inRange((Comparable) store.get(i, column), lower, upper, inclusive)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean inRange(Comparable value, Comparable lower, Comparable upper, boolean inclusive) {
+        if (value == null) return false;
+        if (lower != null && (inclusive ? value.compareTo(lower) < 0 : value.compareTo(lower) <= 0)) return false;
+        if (upper != null && (inclusive ? value.compareTo(upper) > 0 : value.compareTo(upper) >= 0)) return false;
+        return true;
+    }
+
+    //результат поиска - представления строк хранилища, записи не копируются заранее;
+    //изменение такой Map делает её собственную копию и не затрагивает базу
+    private List<Map<String, Object>> toRecords(RoaringBitmap indices) {
+        int[] rows = indices.toArray();
+        return rowViews(rows, rows.length, null);
+    }
+
+    //ленивый список представлений выбранных строк, projection - номера колонок или null для всех;
+    //хранилище запоминается сейчас, а значения читаются представлениями под своей блокировкой чтения
+    private List<Map<String, Object>> rowViews(int[] rows, int count, int[] projection) {
+        ColumnStore current = store;
+        return new AbstractList<>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                Objects.checkIndex(index, count);
+                return new RowView(Database.this, current, rows[index], projection);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
     public List<Map<String, Object>> search(String fieldName, Object value, boolean partialMatch) {
-        Set<Integer> indices = findRecordIndices(fieldName, value, partialMatch);
-        List<Map<String, Object>> results = new ArrayList<>(indices.size());
+        return read(() -> {
+            awaitIndexes();
+            return toRecords(findRecordIndices(fieldName, value, partialMatch));
+        });
+    }
+
+    public List<Map<String, Object>> searchRange(String fieldName, Object from, Object to, boolean inclusive) {
+        return read(() -> {
+            awaitIndexes();
+            return toRecords(findRangeIndices(fieldName, from, to, inclusive));
+        });
+    }
 
-        for (int index : indices) {
-            if (index >= 0 && index < records.size()) {
-                results.add(new HashMap<>(records.get(index)));
+    //первые limit записей по возрастанию или убыванию поля, записи без значения пропускаются
+    //с упорядоченным индексом обход останавливается на limit, без полной сортировки
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<Map<String, Object>> getRecordsOrderedBy(String fieldName, boolean ascending, int limit) {
+        return read(() -> {
+            awaitIndexes();
+            int column = store.columnIndex(fieldName);
+            if (column < 0 || limit <= 0) return List.of();
+
+            Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.get(fieldName);
+            if (fieldIndex instanceof NavigableMap) {
+                NavigableMap<Object, RoaringBitmap> sorted = (NavigableMap<Object, RoaringBitmap>) fieldIndex;
+                int[] rows = new int[Math.min(limit, getRecordCount())];
+                int count = 0;
+                for (RoaringBitmap indices : (ascending ? sorted : sorted.descendingMap()).values()) {
+                    for (PrimitiveIterator.OfInt it = indices.iterator(); it.hasNext() && count < rows.length; ) {
+                        rows[count++] = it.nextInt();
+                    }
+                    if (count == rows.length) break;
+                }
+                return rowViews(rows, count, null);
+            }
+
+            //без индекса держим кучу из limit лучших строк
+            Comparator<Integer> order = (r1, r2) -> ((Comparable) store.get(r1, column)).compareTo(store.get(r2, column));
+            if (ascending) order = order.reversed();
+            PriorityQueue<Integer> heap = new PriorityQueue<>(order);
+            for (int i = store.nextLive(0); i >= 0; i = store.nextLive(i + 1)) {
+                if (store.get(i, column) == null) continue;
+                heap.add(i);
+                if (heap.size() > limit) heap.poll();
+            }
+
+            Integer[] best = heap.toArray(new Integer[0]);
+            Arrays.sort(best, order.reversed());
+            int[] rows = new int[best.length];
+            for (int i = 0; i < best.length; i++) {
+                rows[i] = best[i];
             }
+            return rowViews(rows, rows.length, null);
+        });
+    }
+
+    //записи, где в значении поля есть слово, начинающееся с prefix (без учёта регистра)
+    public List<Map<String, Object>> searchPrefix(String fieldName, String prefix) {
+        return read(() -> {
+            awaitIndexes();
+            TextIndex textIndex = textIndexes.get(fieldName);
+            if (textIndex == null || prefix == null) return List.of();
+            return toRecords(textIndex.prefixRows(tokenizer.normalize(prefix)));
+        });
+    }
+
+    //поиск с опечатками: записи со словом, которое получается из word не больше чем
+    //maxDistance вставками, удалениями и заменами символов (без учёта регистра)
+    public List<Map<String, Object>> searchFuzzy(String fieldName, String word, int maxDistance) {
+        if (maxDistance < 0 || maxDistance > 2) {
+            throw new IllegalArgumentException("Допустимое число опечаток - от 0 до 2");
         }
+        return read(() -> {
+            awaitIndexes();
+            TextIndex textIndex = textIndexes.get(fieldName);
+            if (textIndex == null || word == null) return List.of();
+            return toRecords(textIndex.fuzzyRows(tokenizer.normalize(word), maxDistance));
+        });
+    }
 
-        return results;
+    //полнотекстовый поиск: до k записей, где есть слова query, по убыванию оценки BM25
+    //слова запроса разбираются тем же Tokenizer, что и значения колонки
+    public List<Map<String, Object>> searchText(String fieldName, String query, int k) {
+        return read(() -> {
+            awaitIndexes();
+            TextIndex textIndex = textIndexes.get(fieldName);
+            if (textIndex == null || query == null) return List.of();
+            int[] rows = textIndex.top(query, k, tokenizer);
+            return rowViews(rows, rows.length, null);
+        });
     }
 
     public List<Map<String, Object>> search(String field, Object value) {
         return search(field, value, false);
     }
 
-    private boolean shouldReorderKeys(String fieldName) {
-        return primaryKey != null &&
-                (fieldName.equals(primaryKey) || isNumericPrimaryKey());
+    //запрос с несколькими условиями, порядок применения индексов выбирает QueryPlanner
+    public List<Map<String, Object>> query(Query query) {
+        return read(() -> {
+            awaitIndexes();
+            int[] projection = projection(query.getFields());
+            RecordCursor cursor = new RecordCursor(this, query, projection);
+            int[] rows = new int[16];
+            int count = 0;
+
+            while (cursor.hasNext()) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, count * 2);
+                }
+                rows[count++] = cursor.nextRow();
+            }
+
+            return rowViews(rows, count, projection);
+        });
     }
 
-    private void reorderPrimaryKeys() {
-        if (primaryKey == null) return;
+    //ленивое чтение результата запроса, с учётом limit, offset и after
+    public RecordCursor cursor(Query query) {
+        return read(() -> {
+            awaitIndexes();
+            return new RecordCursor(this, query, projection(query.getFields()));
+        });
+    }
 
-        DatabaseColumn pkColumn = getPrimaryKeyColumn();
-        if (pkColumn == null || (!pkColumn.getType().equals(Integer.class) &&
-                !pkColumn.getType().equals(Double.class))) {
-            return;
+    //номера колонок для проекции, неизвестные поля пропускаются
+    private int[] projection(List<String> fields) {
+        if (fields == null) return null;
+        return fields.stream().mapToInt(store::columnIndex).filter(column -> column >= 0).toArray();
+    }
+
+    //точки входа для QueryPlanner: оценки по индексам и выборки по одному условию
+    int estimateEquals(String fieldName, Object value) {
+        Object key = equalityKey(fieldName, value);
+        if (key == null) return 0;
+        if (primaryKey != null && fieldName.equals(primaryKey)) {
+            return primaryKeyIndex.containsKey(key) ? 1 : 0;
         }
+        Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.get(fieldName);
+        RoaringBitmap indices = fieldIndex != null ? fieldIndex.get(key) : null;
+        return indices != null ? indices.getCardinality() : 0;
+    }
 
-        records.sort((r1, r2) -> {
-            Object v1 = r1.get(primaryKey);
-            Object v2 = r2.get(primaryKey);
+    int estimateContains(String fieldName, String text) {
+        TrigramIndex trigramIndex = trigramIndexes.get(fieldName);
+        return trigramIndex != null ? trigramIndex.estimate(text.toLowerCase()) : 0;
+    }
 
-            if (v1 instanceof Integer && v2 instanceof Integer) {
-                return Integer.compare((Integer) v1, (Integer) v2);
-            } else if (v1 instanceof Double && v2 instanceof Double) {
-                return Double.compare((Double) v1, (Double) v2);
-            }
-            return 0;
-        });
+    @SuppressWarnings("unchecked")
+    int estimateRange(String fieldName, Object from, Object to, boolean inclusive) {
+        Map<Object, RoaringBitmap> fieldIndex = fieldIndexes.get(fieldName);
+        if (!(fieldIndex instanceof NavigableMap)) {
+            return getRecordCount();
+        }
+        int column = store.columnIndex(fieldName);
+        Object lower = store.normalize(column, from);
+        Object upper = store.normalize(column, to);
+        NavigableMap<Object, RoaringBitmap> sorted = (NavigableMap<Object, RoaringBitmap>) fieldIndex;
+        if (lower != null) sorted = sorted.tailMap(lower, inclusive);
+        if (upper != null) sorted = sorted.headMap(upper, inclusive);
 
-        rebuildIndexes();
+        long estimate = 0;
+        for (RoaringBitmap indices : sorted.values()) {
+            estimate += indices.getCardinality();
+        }
+        return (int) Math.min(estimate, getRecordCount());
+    }
 
-        for (int i = 0; i < records.size(); i++) {
-            Map<String, Object> record = records.get(i);
-            if (pkColumn.getType().equals(Integer.class)) {
-                record.put(primaryKey, i + 1);
-            } else if (pkColumn.getType().equals(Double.class)) {
-                record.put(primaryKey, (double) (i + 1));
-            }
+    RoaringBitmap findEquals(String fieldName, Object value) {
+        //null не попадает в индексы
+        if (value == null) return new RoaringBitmap();
+        return findRecordIndices(fieldName, value, false);
+    }
+
+    RoaringBitmap findContains(String fieldName, String text) {
+        return findRecordIndices(fieldName, text, true);
+    }
+
+    //строки, которые могут содержать text, без проверки значений; проверку делает QueryPlanner
+    RoaringBitmap findContainsCandidates(String fieldName, String text) {
+        TrigramIndex trigramIndex = trigramIndexes.get(fieldName);
+        return trigramIndex != null ? trigramIndex.candidates(text.toLowerCase()) : new RoaringBitmap();
+    }
+
+    RoaringBitmap findRange(String fieldName, Object from, Object to, boolean inclusive) {
+        return findRangeIndices(fieldName, from, to, inclusive);
+    }
+
+    @SuppressWarnings("rawtypes")
+    boolean rangeContains(int index, String fieldName, Object from, Object to, boolean inclusive) {
+        int column = store.columnIndex(fieldName);
+        if (column < 0) return false;
+        return inRange((Comparable) store.get(index, column),
+                (Comparable) store.normalize(column, from), (Comparable) store.normalize(column, to), inclusive);
+    }
+
+    boolean isLive(int index) {
+        return store.isLive(index);
+    }
+
+    int nextLive(int index) {
+        return store.nextLive(index);
+    }
+
+    int getRowNumbering() {
+        return rowNumbering;
+    }
+
+    Map<String, Object> rowView(int index, int[] projection) {
+        return read(() -> new RowView(this, store, index, projection));
+    }
+
+    RoaringBitmap liveRows() {
+        RoaringBitmap rows = new RoaringBitmap();
+        for (int i = store.nextLive(0); i >= 0; i = store.nextLive(i + 1)) {
+            rows.add(i);
         }
+        return rows;
+    }
 
-        rebuildIndexes();
+    Object getValue(int index, String fieldName) {
+        return store.get(index, fieldName);
     }
 
     private boolean isNumericPrimaryKey() {
@@ -354,6 +1119,12 @@ public class Database implements Serializable {
                 (pkColumn.getType().equals(Integer.class) || pkColumn.getType().equals(Double.class));
     }
 
+    //тип первичного ключа для индекса ключей, null если ключа нет
+    private Class<?> primaryKeyType() {
+        DatabaseColumn pkColumn = primaryKey != null ? getPrimaryKeyColumn() : null;
+        return pkColumn != null ? pkColumn.getType() : null;
+    }
+
     private DatabaseColumn getPrimaryKeyColumn() {
         for (DatabaseColumn column : columns) {
             if (column.getName().equals(primaryKey)) {
@@ -364,44 +1135,473 @@ public class Database implements Serializable {
     }
 
     public boolean updateRecord(Object keyValue, Map<String, Object> newData) {
-        if (primaryKey == null) return false;
+        return write(() -> {
+            awaitIndexes();
+            requireNoBulk();
+            if (primaryKey == null) return false;
 
-        Integer index = primaryKeyIndex.get(keyValue);
-        if (index == null || index < 0 || index >= records.size()) {
-            return false;
-        }
+            int index = primaryKeyIndex.get(keyValue);
+            if (index == KeyIndex.ABSENT || !store.isLive(index)) {
+                return false;
+            }
+
+            //сначала приводим все значения, чтобы при ошибке типа запись осталась нетронутой
+            Map<Integer, Object> normalized = new HashMap<>();
+            for (Map.Entry<String, Object> entry : newData.entrySet()) {
+                int column = store.columnIndex(entry.getKey());
+                if (column >= 0) {
+                    normalized.put(column, store.normalize(column, entry.getValue()));
+                }
+            }
 
-        Map<String, Object> record = records.get(index);
+            int row = index;
+            writeLog(WriteAheadLog.UPDATE, out -> {
+                out.writeInt(row);
+                out.writeInt(normalized.size());
+                for (Map.Entry<Integer, Object> entry : normalized.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    ValueCodec.write(out, entry.getValue());
+                }
+            });
+            applyUpdate(index, normalized);
 
-        removeRecordFromIndexes(record, index);
+            return true;
+        });
+    }
 
-        record.putAll(newData);
+    private void applyUpdate(int index, Map<Integer, Object> normalized) {
+        removeRecordFromIndexes(index);
 
-        indexRecord(record, index);
+        for (Map.Entry<Integer, Object> entry : normalized.entrySet()) {
+            store.set(index, entry.getKey(), entry.getValue());
+        }
 
-        return true;
+        indexRecord(index);
+        notifyListeners(listener -> listener.rowUpdated(index));
     }
 
     //очистка бд
     public void clear() {
-        records.clear();
+        update(() -> {
+            awaitIndexes();
+            requireNoBulk();
+            writeLog(WriteAheadLog.CLEAR, out -> {
+            });
+            applyClear();
+        });
+    }
+
+    private void applyClear() {
+        store = store.emptyCopy();
+        rowNumbering++;
         initializeIndexes();
+        notifyListeners(ChangeListener::reloaded);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
     }
 
-    public List<DatabaseColumn> getColumns() { return columns; }
-    public List<Map<String, Object>> getRecords() { return records; }
+    private void notifyListeners(Consumer<ChangeListener> event) {
+        for (ChangeListener listener : listeners) {
+            event.accept(listener);
+        }
+    }
+
+    public List<DatabaseColumn> getColumns() { return Collections.unmodifiableList(columns); }
     public String getPrimaryKey() { return primaryKey; }
-    public int getRecordCount() { return records.size(); }
+    public Tokenizer getTokenizer() { return tokenizer; }
+
+    //другое разбиение строк на слова, словарный индекс строится заново
+    //в файл разбиение не сохраняется: открытая заново база разбирает строки по умолчанию
+    public void setTokenizer(Tokenizer tokenizer) {
+        update(() -> {
+            awaitIndexes();
+            requireNoBulk();
+            this.tokenizer = Objects.requireNonNull(tokenizer);
+            rebuildIndexes();
+        });
+    }
+    public int getRecordCount() { return readOptimistic(store::liveCount); }
+    //плотный порядковый номер записи с ключом keyValue: её место среди живых записей по возрастанию
+    //числового первичного ключа, с 1; сами ключи после удалений не перенумеровываются, номер
+    //считается деревом порядковых статистик за O(log n). -1, если записи нет или ключ не числовой
+    public int getOrdinal(Object keyValue) {
+        return read(() -> {
+            awaitIndexes();
+            if (keyOrder == null || keyValue == null) return -1;
+            Object key = store.normalize(store.columnIndex(primaryKey), keyValue);
+            return primaryKeyIndex.containsKey(key) ? keyOrder.rank(key) + 1 : -1;
+        });
+    }
+
+    //запись с плотным порядковым номером ordinal (с 1), null если такой нет
+    public Map<String, Object> getRecordByOrdinal(int ordinal) {
+        return read(() -> {
+            awaitIndexes();
+            if (keyOrder == null) return null;
+            Object key = keyOrder.select(ordinal - 1);
+            return key != null ? rowView(primaryKeyIndex.get(key), null) : null;
+        });
+    }
+
+    //меняют ли добавленные (inserted) или удалённые строки rows порядковые номера остальных записей:
+    //не меняют, если их ключи больше ключей всех остальных записей (ключи растут, как обычно и бывает)
+    boolean shiftsOrdinals(PrimitiveIterator.OfInt rows, boolean inserted) {
+        return read(() -> {
+            awaitIndexes();
+            if (keyOrder == null) return false;
+            int keyColumn = store.columnIndex(primaryKey);
+            int changed = 0;
+            int lowest = keyOrder.size();
+            while (rows.hasNext()) {
+                int row = rows.nextInt();
+                if (store.isLive(row) != inserted) continue;
+                changed++;
+                //ключ удалённой строки уже убран из дерева, его место - число меньших ключей
+                lowest = Math.min(lowest, keyOrder.rank(store.get(row, keyColumn)));
+            }
+            //номер меняется у ключей не меньше самого малого изменённого, кроме добавленных
+            return keyOrder.size() - lowest > (inserted ? changed : 0);
+        });
+    }
+
+    //ведутся ли плотные порядковые номера (первичный ключ числовой)
+    public boolean hasOrdinals() {
+        return isNumericPrimaryKey();
+    }
+
+    //место строки хранилища row в getRecords(): число живых записей перед ней
+    //не оптимистично: по ходу счёта запоминаются счётчики блоков, они должны быть согласованы
+    public int ordinalOf(int row) { return read(() -> store.liveOrdinal(row)); }
+
+    //живые записи по порядку; каждая запись ищется под блокировкой чтения в текущем хранилище базы,
+    //так что список переживает уплотнение, но в целом он не снимок: удаления и добавления
+    //между обращениями сдвигают места записей
+    public List<Map<String, Object>> getRecords() {
+        return new AbstractList<>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                return read(() -> new RowView(Database.this, store, store.liveRow(index), null));
+            }
+
+            @Override
+            public Iterator<Map<String, Object>> iterator() {
+                return new Iterator<>() {
+                    //хранилище, в котором найдена next; после уплотнения или очистки
+                    //следующая запись ищется заново по числу уже выданных
+                    private ColumnStore rows;
+                    private int next;
+                    private int returned;
+
+                    @Override
+                    public boolean hasNext() {
+                        return read(() -> {
+                            locate();
+                            return next >= 0;
+                        });
+                    }
+
+                    @Override
+                    public Map<String, Object> next() {
+                        return read(() -> {
+                            locate();
+                            if (next < 0) throw new NoSuchElementException();
+                            int current = next;
+                            next = rows.nextLive(current + 1);
+                            returned++;
+                            return new RowView(Database.this, rows, current, null);
+                        });
+                    }
+
+                    private void locate() {
+                        if (rows != store) {
+                            rows = store;
+                            next = returned < rows.liveCount() ? rows.liveRow(returned) : -1;
+                        }
+                    }
+                };
+            }
 
+            @Override
+            public int size() {
+                return getRecordCount();
+            }
+        };
+    }
+    //файл, в журнал которого пишутся изменения, или null
+    public File getFile() { return file; }
+
+    //контрольная точка: полный снимок базы пишется во временный файл и атомарно заменяет файл базы,
+    //после чего журнал очищается; дальнейшие изменения пишутся в журнал этого файла
     public void saveToFile(File file) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(this);
+        update(() -> {
+            if (log != null && !file.equals(this.file)) {
+                closeLog();
+            }
+            if (log != null) {
+                checkpointLsn = log.lastLsn();
+            }
+
+            writeSnapshot(file);
+
+            if (log != null) {
+                log.reset();
+            } else {
+                //журнал, оставшийся от другой базы с тем же именем, к этому снимку не относится
+                log = WriteAheadLog.create(file, checkpointLsn);
+                this.file = file;
+            }
+        });
+    }
+
+    //снимок базы без журнала (резервная копия): пишется во временный файл и атомарно заменяет file
+    //индексы записываются вместе с данными, чтобы при открытии их не строить заново
+    //файл, открытый в страничном режиме, перед заменой закрывается, а страничные колонки затем
+    //переходят на страницы нового файла; на это время нужна блокировка записи, иначе читатели
+    //обратились бы к закрытому файлу
+    public void writeSnapshot(File file) throws IOException {
+        if (read(() -> pageCache != null && pageCache.isFile(file))) {
+            update(() -> {
+                File temp = writeTemp(file);
+                if (pageCache == null || !pageCache.isFile(file)) {
+                    replace(temp, file);
+                    return;
+                }
+                pageCache.close();
+                try {
+                    replace(temp, file);
+                } catch (IOException | RuntimeException e) {
+                    //файл не заменён: страницы по-прежнему читаются из него
+                    try {
+                        pageCache.reopen();
+                    } catch (IOException reopen) {
+                        e.addSuppressed(reopen);
+                    }
+                    throw e;
+                }
+                pageCache = FdbFormat.reopen(file, pageCache.budget(), store);
+            });
+            return;
+        }
+        read(() -> {
+            replace(writeTemp(file), file);
+            return null;
+        });
+    }
+
+    private File writeTemp(File file) throws IOException {
+        awaitIndexes();
+        requireNoBulk();
+        //словарный индекс другого разбиения при открытии не совпал бы с разбиением по умолчанию,
+        //поэтому без него индексы в файл не пишутся и строятся при открытии заново
+        FdbFormat.Indexes indexes = tokenizer == Tokenizer.DEFAULT
+                ? new FdbFormat.Indexes(primaryKeyIndex, fieldIndexes, trigramIndexes, textIndexes)
+                : null;
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FdbFormat.write(channel, new FdbFormat.Snapshot(columns, primaryKey, checkpointLsn, store, null, indexes));
+            channel.force(true);
+        }
+        return temp;
+    }
+
+    private static void replace(File temp, File file) throws IOException {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //чтение снимка без журнала; файлы, сохранённые через ObjectOutputStream, тоже читаются
+    public static Database readSnapshot(File file) throws IOException, ClassNotFoundException {
+        Database database = readFile(file);
+        database.buildDeferredIndexes();
+        return database;
+    }
+
+    private static Database readFile(File file) throws IOException, ClassNotFoundException {
+        if (!FdbFormat.isFdbFile(file)) {
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                return (Database) ois.readObject();
+            }
+        }
+
+        return fromSnapshot(FdbFormat.read(file));
+    }
+
+    //индексы берутся из файла; если их нет или они устарели, они строятся позже в фоне
+    private static Database fromSnapshot(FdbFormat.Snapshot snapshot) {
+        Database database = new Database();
+        database.columns = snapshot.columns;
+        database.primaryKey = snapshot.primaryKey;
+        database.checkpointLsn = snapshot.checkpointLsn;
+        database.store = snapshot.store;
+        if (snapshot.indexes != null) {
+            database.installIndexes(snapshot.indexes);
+        } else {
+            database.indexesDeferred = true;
+        }
+        return database;
+    }
+
+    private void buildDeferredIndexes() {
+        if (indexesDeferred) {
+            startIndexBuild();
         }
     }
 
+    //загрузка снимка и повтор операций журнала, сделанных после последней контрольной точки
     public static Database loadFromFile(File file) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            return (Database) ois.readObject();
+        return attachLog(readFile(file), file);
+    }
+
+    //страничное открытие для файлов больше кучи: значения колонок остаются в файле,
+    //страницы читаются при обращении и вытесняются по LRU сверх cacheBytes
+    //файлы старого формата так открыть нельзя, они загружаются целиком
+    public static Database openPaged(File file, long cacheBytes) throws IOException, ClassNotFoundException {
+        if (!FdbFormat.isFdbFile(file)) {
+            return loadFromFile(file);
+        }
+        FdbFormat.Snapshot snapshot = FdbFormat.open(file, cacheBytes);
+        Database database = fromSnapshot(snapshot);
+        database.pageCache = snapshot.pageCache;
+        return attachLog(database, file);
+    }
+
+    public static Database openPaged(File file) throws IOException, ClassNotFoundException {
+        return openPaged(file, Runtime.getRuntime().maxMemory() / PAGE_CACHE_HEAP_SHARE);
+    }
+
+    private static Database attachLog(Database database, File file) throws IOException {
+        try {
+            database.log = WriteAheadLog.open(file, database.checkpointLsn, database::replay);
+        } catch (IOException | RuntimeException e) {
+            database.close();
+            throw e;
+        }
+        database.file = file;
+        //журнал повторяется до построения индексов, поэтому строятся они уже по итоговым данным
+        database.buildDeferredIndexes();
+        return database;
+    }
+
+    //фиксация: операции, записанные в журнал, сбрасываются на диск (один fsync на группу операций),
+    //а когда журнал вырос, делается контрольная точка
+    //fsync идёт без блокировки базы: другие потоки тем временем продолжают изменения
+    public void commit() throws IOException {
+        WriteAheadLog current = log;
+        if (current == null) return;
+        current.sync(current.lastLsn());
+        if (current.size() >= CHECKPOINT_LOG_BYTES) {
+            update(() -> {
+                if (log == current && current.size() >= CHECKPOINT_LOG_BYTES) {
+                    saveToFile(file);
+                }
+            });
+        }
+    }
+
+    //закрывает журнал и файл страниц; несброшенные операции остаются в журнале
+    //и будут повторены при открытии
+    @Override
+    public void close() throws IOException {
+        //фоновое уплотнение читает колонки и пишет журнал, поэтому дожидаемся его;
+        //неудачное уплотнение базу не меняет, закрытию оно не мешает
+        try {
+            awaitCompaction();
+        } catch (CompletionException ignored) {
+        }
+        update(() -> {
+            try {
+                closeLog();
+            } finally {
+                if (pageCache != null) {
+                    pageCache.close();
+                    pageCache = null;
+                }
+            }
+        });
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) {
+            try {
+                log.close();
+            } finally {
+                log = null;
+                file = null;
+            }
+        }
+    }
+
+    //удаляет файл базы вместе с журналом
+    public static boolean deleteFiles(File file) {
+        File logFile = WriteAheadLog.fileFor(file);
+        boolean deleted = file.delete();
+        if (logFile.exists()) {
+            deleted &= logFile.delete();
+        }
+        return deleted;
+    }
+
+    private interface LogBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    //операция пишется в журнал до изменения данных в памяти
+    private void writeLog(byte type, LogBody body) {
+        if (log == null) return;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            body.write(out);
+            out.flush();
+            log.append(type, buffer.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи журнала: " + e.getMessage(), e);
+        }
+    }
+
+    private void replay(byte type, DataInput in) throws IOException {
+        switch (type) {
+            case WriteAheadLog.ADD: {
+                Object[] values = new Object[in.readInt()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = ValueCodec.read(in);
+                }
+                applyAdd(values);
+                break;
+            }
+            case WriteAheadLog.UPDATE: {
+                int index = in.readInt();
+                int count = in.readInt();
+                Map<Integer, Object> values = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    values.put(in.readInt(), ValueCodec.read(in));
+                }
+                applyUpdate(index, values);
+                break;
+            }
+            case WriteAheadLog.REMOVE: {
+                int count = in.readInt();
+                RoaringBitmap indices = new RoaringBitmap();
+                for (int i = 0; i < count; i++) {
+                    indices.add(in.readInt());
+                }
+                applyRemove(indices);
+                break;
+            }
+            case WriteAheadLog.CLEAR:
+                applyClear();
+                break;
+            case WriteAheadLog.COMPACT:
+                applyCompact();
+                break;
+            default:
+                throw new IOException("Неизвестная операция в журнале: " + type);
         }
     }
 }
\ No newline at end of file
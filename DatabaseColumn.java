@@ -4,14 +4,25 @@ import java.io.Serializable;
 class DatabaseColumn implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    //HASH - только поиск по равенству, SORTED - ещё диапазоны и обход по порядку значений
+    public enum IndexType { HASH, SORTED }
+
     private String name;
     private Class<?> type;
+    private IndexType indexType;
 
     public DatabaseColumn(String name, Class<?> type) {
+        this(name, type, IndexType.HASH);
+    }
+
+    public DatabaseColumn(String name, Class<?> type, IndexType indexType) {
         this.name = name;
         this.type = type;
+        this.indexType = indexType;
     }
 
     public String getName() { return name; }
     public Class<?> getType() { return type; }
+    //в файлах, сохранённых до появления типа индекса, поле пустое
+    public IndexType getIndexType() { return indexType != null ? indexType : IndexType.HASH; }
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class DatabaseGUI extends JFrame {
     private Database database;
@@ -20,15 +22,36 @@ public class DatabaseGUI extends JFrame {
 
     //компоненты
     private JTable table;
-    private DefaultTableModel tableModel;
+    private RecordTableModel tableModel;
     private JTextField searchField;
     private JComboBox<String> searchFieldComboBox;
     private JLabel statusLabel;
     private JLabel databaseNameLabel;
     private JButton showAllButton;
+    private JButton nextPageButton;
+    private JPanel searchPanel;
+    private JPanel buttonPanel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+
+    //операции с базой выполняются по одной в отдельном потоке, окно при этом не блокируется;
+    //пока операция идёт, кнопки операций выключены, поэтому к базе обращается только этот поток
+    private final ExecutorService databaseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "database");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private BackgroundTask<?> runningTask;
 
     private boolean isSearchMode = false;
 
+    //результаты поиска выводятся страницами, следующая читается после последней показанной строки
+    private static final int PAGE_SIZE = 100;
+    private RecordTableModel searchModel;
+    private List<Map<String, Object>> searchResults;
+    private Query searchQuery;
+    private String searchDescription;
+
     public DatabaseGUI() {
         initializeGUI();
         database = new Database();
@@ -59,14 +82,14 @@ public class DatabaseGUI extends JFrame {
         topPanel.add(databaseNameLabel, BorderLayout.NORTH);
 
         //поиск
-        JPanel searchPanel = createSearchPanel();
+        searchPanel = createSearchPanel();
         topPanel.add(searchPanel, BorderLayout.CENTER);
 
         mainPanel.add(topPanel, BorderLayout.NORTH);
 
         //таблица
         table = new JTable();
-        tableModel = new DefaultTableModel();
+        tableModel = new RecordTableModel(List.of(), List.of());
         table.setModel(tableModel);
         table.setFont(new Font("Georgia", Font.PLAIN, 12));
         table.setForeground(TEXT);
@@ -76,15 +99,35 @@ public class DatabaseGUI extends JFrame {
         mainPanel.add(scrollPane, BorderLayout.CENTER);
 
         //панель кнопок для работы с бд
-        JPanel buttonPanel = createButtonPanel();
+        buttonPanel = createButtonPanel();
         mainPanel.add(buttonPanel, BorderLayout.WEST);
 
-        //статус бд
+        //статус бд и ход фоновой операции
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 0));
+        statusPanel.setOpaque(false);
+
         statusLabel = new JLabel("База данных не загружена");
         statusLabel.setFont(new Font("Georgia", Font.PLAIN, 12));
         statusLabel.setForeground(TEXT);
         statusLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
-        mainPanel.add(statusLabel, BorderLayout.SOUTH);
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+
+        JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        progressPanel.setOpaque(false);
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setFont(new Font("Georgia", Font.PLAIN, 12));
+        progressBar.setPreferredSize(new Dimension(320, 25));
+        progressBar.setVisible(false);
+        cancelButton = createButton("Отмена", DANGER_BUTTON);
+        cancelButton.setPreferredSize(new Dimension(100, 30));
+        cancelButton.addActionListener(e -> cancelTask());
+        cancelButton.setVisible(false);
+        progressPanel.add(progressBar);
+        progressPanel.add(cancelButton);
+        statusPanel.add(progressPanel, BorderLayout.EAST);
+
+        mainPanel.add(statusPanel, BorderLayout.SOUTH);
 
         setContentPane(mainPanel);
     }
@@ -132,11 +175,16 @@ public class DatabaseGUI extends JFrame {
         showAllButton.addActionListener(e -> showAllRecords());
         showAllButton.setVisible(false);
 
+        nextPageButton = createButton("Следующие " + PAGE_SIZE, PRIMARY_BUTTON);
+        nextPageButton.addActionListener(e -> showNextSearchPage());
+        nextPageButton.setVisible(false);
+
         panel.add(searchLabel);
         panel.add(searchFieldComboBox);
         panel.add(searchField);
         panel.add(searchButton);
         panel.add(showAllButton);
+        panel.add(nextPageButton);
 
         return panel;
     }
@@ -248,17 +296,28 @@ public class DatabaseGUI extends JFrame {
             return;
         }
 
-        List<Map<String, Object>> searchResults;
+        Query query;
 
         if (selectedField.equals("Все поля")) {
-            searchResults = database.search("ANY_FIELD", searchValue, true);
+            query = createAnyFieldQuery(searchValue);
         } else {
             Class<?> fieldType = getColumnType(selectedField);
             boolean partialMatch = fieldType.equals(String.class);
 
             try {
-                Object convertedValue = partialMatch ? searchValue : convertValue(searchValue, fieldType);
-                searchResults = database.search(selectedField, convertedValue, partialMatch);
+                int rangeSeparator = searchValue.indexOf("..");
+                if (!partialMatch && rangeSeparator >= 0) {
+                    //диапазон "от..до", любая из границ может быть пустой
+                    String from = searchValue.substring(0, rangeSeparator).trim();
+                    String to = searchValue.substring(rangeSeparator + 2).trim();
+                    query = Query.where(Query.range(selectedField,
+                            from.isEmpty() ? null : convertValue(from, fieldType),
+                            to.isEmpty() ? null : convertValue(to, fieldType), true));
+                } else if (partialMatch) {
+                    query = Query.where(Query.contains(selectedField, searchValue));
+                } else {
+                    query = Query.where(Query.eq(selectedField, convertValue(searchValue, fieldType)));
+                }
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this,
                         "Неверный формат значения для поля '" + selectedField +
@@ -267,37 +326,136 @@ public class DatabaseGUI extends JFrame {
             }
         }
 
-        DefaultTableModel searchModel = new DefaultTableModel();
-
-        for (DatabaseColumn column : database.getColumns()) {
-            searchModel.addColumn(column.getName());
-        }
-
-        for (Map<String, Object> record : searchResults) {
-            addRecordToTable(searchModel, record);
+        searchResults = new ArrayList<>();
+        searchModel = new RecordTableModel(columnNames(), searchResults);
+        if (database.hasOrdinals()) {
+            searchModel.showOrdinals(database);
         }
 
+        searchQuery = query;
+        searchDescription = "поиск по '" + selectedField + "'";
         table.setModel(searchModel);
         isSearchMode = true;
         showAllButton.setVisible(true);
+        nextPageButton.setVisible(false);
+
+        showNextSearchPage();
+    }
+
+    //страница результатов поиска, прочитанная в фоне
+    private static final class SearchPage {
+        List<Map<String, Object>> rows;
+        boolean hasMore;
+    }
+
+    //следующая страница результатов поиска, добавляется к уже показанным
+    private void showNextSearchPage() {
+        Query query = searchQuery;
+        int shown = searchResults.size();
+        runTask("Поиск...", false, task -> {
+            RecordCursor cursor;
+            SearchPage page = new SearchPage();
+            try {
+                cursor = database.cursor(query);
+                page.rows = new ArrayList<>(cursor.nextPage(PAGE_SIZE));
+            } catch (ConcurrentModificationException e) {
+                //база уплотнена и номера строк сменились: продолжаем по числу уже показанных записей
+                query.after(null).offset(shown);
+                cursor = database.cursor(query);
+                page.rows = new ArrayList<>(cursor.nextPage(PAGE_SIZE));
+            }
+            if (cursor.getLastRow() >= 0) {
+                query.after(cursor).offset(0);
+            }
+            page.hasMore = cursor.hasNext();
+            return page;
+        }, page -> {
+            searchResults.addAll(page.rows);
+            searchModel.rowsAppended();
+            showSearchStatus(page.hasMore);
+        }, "Ошибка поиска: ");
+    }
+
+    //результаты поиска за базой не следят: после изменения записей запрос выполняется заново
+    //на столько же записей, сколько уже показано, и показанные страницы заменяются новыми
+    private void refreshSearch() {
+        Query query = Query.where(searchQuery.getWhere());
+        int shown = Math.max(searchResults.size(), PAGE_SIZE);
+        runTask("Поиск...", false, task -> {
+            while (true) {
+                try {
+                    RecordCursor cursor = database.cursor(query);
+                    SearchPage page = new SearchPage();
+                    page.rows = new ArrayList<>(cursor.nextPage(shown));
+                    if (cursor.getLastRow() >= 0) {
+                        query.after(cursor);
+                    }
+                    page.hasMore = cursor.hasNext();
+                    return page;
+                } catch (ConcurrentModificationException e) {
+                    //база уплотнена во время чтения: читаем заново по новым номерам строк
+                }
+            }
+        }, page -> {
+            searchQuery = query;
+            searchResults.clear();
+            searchResults.addAll(page.rows);
+            searchModel.rowsReplaced();
+            showSearchStatus(page.hasMore);
+        }, "Ошибка поиска: ");
+    }
+
+    private void showSearchStatus(boolean hasMore) {
+        nextPageButton.setVisible(hasMore);
+        updateStatus("Найдено записей: " + searchModel.getRowCount() + (hasMore ? "+" : "")
+                + " (" + searchDescription + ")");
+    }
+
+    //условие "значение в любом поле": подстрока для текстовых колонок, равенство для остальных
+    private Query createAnyFieldQuery(String searchValue) {
+        List<Query.Predicate> predicates = new ArrayList<>();
+        for (DatabaseColumn column : database.getColumns()) {
+            if (column.getType().equals(String.class)) {
+                predicates.add(Query.contains(column.getName(), searchValue));
+            } else {
+                Object value = parseStrict(searchValue, column.getType());
+                if (value != null) {
+                    predicates.add(Query.eq(column.getName(), value));
+                }
+            }
+        }
+        return Query.where(Query.or(predicates.toArray(new Query.Predicate[0])));
+    }
 
-        updateStatus("Найдено записей: " + searchResults.size() + " (поиск по '" + selectedField + "')");
+    //в отличие от convertValue не считает любую строку значением false
+    private Object parseStrict(String value, Class<?> type) {
+        if (type == Boolean.class) {
+            String lowerValue = value.trim().toLowerCase();
+            List<String> known = List.of("true", "false", "1", "0", "да", "нет", "yes", "no");
+            return known.contains(lowerValue) ? convertValue(value, type) : null;
+        }
+        try {
+            return convertValue(value, type);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
-    private void addRecordToTable(DefaultTableModel model, Map<String, Object> record) {
-        Object[] rowData = new Object[database.getColumns().size()];
-        for (int i = 0; i < database.getColumns().size(); i++) {
-            rowData[i] = record.get(database.getColumns().get(i).getName());
+    private List<String> columnNames() {
+        List<String> names = new ArrayList<>();
+        for (DatabaseColumn column : database.getColumns()) {
+            names.add(column.getName());
         }
-        model.addRow(rowData);
+        return names;
     }
 
     private void showAllRecords() {
-        updateTable();
         isSearchMode = false;
         showAllButton.setVisible(false);
+        nextPageButton.setVisible(false);
         searchField.setText("");
         updateStatus("Показаны все записи: " + database.getRecordCount() + " записей");
+        updateTable();
     }
 
     //создание бд
@@ -306,6 +464,7 @@ public class DatabaseGUI extends JFrame {
             String name = JOptionPane.showInputDialog(this, "Введите название базы данных:");
             if (name == null || name.trim().isEmpty()) return;
 
+            closeDatabase();
             database = new Database();
             currentFile = null;
             databaseName = name;
@@ -339,7 +498,16 @@ public class DatabaseGUI extends JFrame {
                                 "Сделать первичным ключом?", "Первичный ключ",
                                 JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
 
-                database.addColumn(columnName, columnType, isPrimaryKey);
+                //для чисел предлагаем упорядоченный индекс, он нужен для поиска по диапазону
+                DatabaseColumn.IndexType indexType = DatabaseColumn.IndexType.HASH;
+                if ((columnType == Integer.class || columnType == Double.class) &&
+                        JOptionPane.showConfirmDialog(this,
+                                "Построить упорядоченный индекс? (поиск по диапазону \"от..до\")",
+                                "Индекс", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                    indexType = DatabaseColumn.IndexType.SORTED;
+                }
+
+                database.addColumn(columnName, columnType, isPrimaryKey, indexType);
 
                 if (isPrimaryKey) {
                     JOptionPane.showMessageDialog(this,
@@ -357,6 +525,7 @@ public class DatabaseGUI extends JFrame {
             updateSearchFields();
             updateDatabaseNameDisplay();
             showAllButton.setVisible(false);
+            nextPageButton.setVisible(false);
             isSearchMode = false;
             updateStatus("База данных '" + databaseName + "' создана. Добавьте первую запись.");
 
@@ -373,20 +542,26 @@ public class DatabaseGUI extends JFrame {
         fileChooser.setDialogTitle("Открыть базу данных");
 
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                database = Database.loadFromFile(fileChooser.getSelectedFile());
-                currentFile = fileChooser.getSelectedFile();
+            File selected = fileChooser.getSelectedFile();
+            runTask("Открытие " + selected.getName() + "...", false, task -> {
+                //большой файл не читается в кучу целиком, его страницы подгружаются по мере обращения
+                return selected.length() > Runtime.getRuntime().maxMemory() / 4
+                        ? Database.openPaged(selected)
+                        : Database.loadFromFile(selected);
+            }, loaded -> {
+                closeDatabase();
+                database = loaded;
+                currentFile = selected;
                 databaseName = currentFile.getName().replace(".fdb", "");
-                updateTable();
                 updateSearchFields();
                 updateDatabaseNameDisplay();
                 showAllButton.setVisible(false);
+                nextPageButton.setVisible(false);
                 isSearchMode = false;
                 updateStatus("База данных загружена: " + currentFile.getName() +
                         " (" + database.getRecordCount() + " записей)");
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Ошибка открытия базы данных: " + ex.getMessage());
-            }
+                updateTable();
+            }, "Ошибка открытия базы данных: ");
         }
     }
 
@@ -415,26 +590,39 @@ public class DatabaseGUI extends JFrame {
             }
         }
 
-        try {
-            database.saveToFile(currentFile);
+        File target = currentFile;
+        runTask("Сохранение...", false, task -> {
+            database.saveToFile(target);
+            return null;
+        }, ignored -> {
             updateDatabaseNameDisplay();
-            updateStatus("База данных сохранена: " + currentFile.getName() +
+            updateStatus("База данных сохранена: " + target.getName() +
                     " (" + database.getRecordCount() + " записей)");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка сохранения базы данных: " + ex.getMessage());
-        }
+        }, "Ошибка сохранения базы данных: ");
     }
 
-    private void saveAfterOperation() {
-        if (currentFile != null) {
-            try {
-                database.saveToFile(currentFile);
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Ошибка сохранения изменений: " + ex.getMessage());
+    //изменение уже записано в журнал базы, здесь оно только фиксируется на диске;
+    //база, ещё не связанная с файлом target, сохраняется в него целиком
+    //вызывается в фоновой задаче вместе с самим изменением
+    private void saveAfterOperation(File target) throws IOException {
+        if (target != null) {
+            if (target.equals(database.getFile())) {
+                database.commit();
+            } else {
+                database.saveToFile(target);
             }
         }
     }
 
+    //журнал прежней базы закрывается перед заменой её другой
+    private void closeDatabase() {
+        try {
+            database.close();
+        } catch (IOException ex) {
+            updateStatus("Ошибка закрытия журнала: " + ex.getMessage());
+        }
+    }
+
     //импорт
     private void importDatabase(ActionEvent e) {
         JFileChooser fileChooser = new JFileChooser();
@@ -446,188 +634,98 @@ public class DatabaseGUI extends JFrame {
             File selectedFile = fileChooser.getSelectedFile();
             String fileName = selectedFile.getName().toLowerCase();
 
-            try {
-                if (fileName.endsWith(".csv")) {
-                    importFromCSV(selectedFile);
-                } else {
-                    importFromDatabaseFile(selectedFile);
-                }
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this,
-                        "Ошибка импорта: " + ex.getMessage() +
-                                "\nУбедитесь, что файл имеет корректный формат",
-                        "Ошибка импорта", JOptionPane.ERROR_MESSAGE);
+            if (fileName.endsWith(".csv")) {
+                importFromCSV(selectedFile);
+            } else {
+                importFromDatabaseFile(selectedFile);
             }
         }
     }
 
-    //импорт из формата CSV
+    private void showImportError(Exception ex) {
+        JOptionPane.showMessageDialog(this,
+                "Ошибка импорта: " + ex.getMessage() +
+                        "\nУбедитесь, что файл имеет корректный формат",
+                "Ошибка импорта", JOptionPane.ERROR_MESSAGE);
+    }
+
+    //импорт из формата CSV, файл читается потоково и добавляется пачками
+    //заголовки и образец читаются в фоне, вопросы задаются в окне, затем в фоне идёт сам импорт
     private void importFromCSV(File csvFile) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
-            String line;
-            List<String> headers = new ArrayList<>();
-            List<Map<String, String>> csvData = new ArrayList<>();
-            int lineNumber = 0;
-
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                if (line.trim().isEmpty()) continue;
-
-                List<String> row = parseCSVLine(line);
-
-                if (headers.isEmpty()) {
-                    headers = row;
-                    if (headers.isEmpty()) {
-                        throw new IOException("CSV файл не содержит заголовков");
-                    }
-                } else {
-                    if (row.size() != headers.size()) {
-                        System.out.println("Предупреждение: строка " + lineNumber + " имеет " +
-                                row.size() + " колонок вместо " + headers.size());
-                        while (row.size() < headers.size()) {
-                            row.add("");
-                        }
-                        if (row.size() > headers.size()) {
-                            row = row.subList(0, headers.size());
-                        }
-                    }
+        runTask("Чтение " + csvFile.getName() + "...", false,
+                task -> new CsvImporter(csvFile),
+                importer -> importFromCSV(csvFile, importer),
+                this::showImportError);
+    }
 
-                    Map<String, String> record = new HashMap<>();
-                    for (int i = 0; i < headers.size(); i++) {
-                        record.put(headers.get(i), row.get(i));
-                    }
-                    csvData.add(record);
-                }
+    private void importFromCSV(File csvFile, CsvImporter importer) {
+        List<String> headers = importer.getHeaders();
+
+        int choice = showCSVImportDialog(headers, csvFile.length());
+        boolean replace = database.getColumns().isEmpty() || choice == JOptionPane.YES_OPTION;
+        Map<String, Class<?>> columnTypes = null;
+        String primaryKey = null;
+        if (choice != JOptionPane.CANCEL_OPTION) {
+            if (replace) {
+                columnTypes = importer.detectColumnTypes();
+                primaryKey = selectPrimaryKey(headers);
+            } else if (!validateCSVForExistingDB(headers)) {
+                choice = JOptionPane.CANCEL_OPTION;
             }
-
-            if (headers.isEmpty()) {
-                throw new IOException("CSV файл пуст или не содержит данных");
+        }
+        if (choice == JOptionPane.CANCEL_OPTION) {
+            try {
+                importer.close();
+            } catch (IOException ex) {
+                updateStatus("Ошибка закрытия CSV файла: " + ex.getMessage());
             }
+            return;
+        }
 
-            int result = showCSVImportDialog(headers, csvData.size());
-            if (result == JOptionPane.CANCEL_OPTION) return;
-
-            if (database.getColumns().isEmpty() || result == JOptionPane.YES_OPTION) {
-                database = new Database();
-                databaseName = "Импорт из " + csvFile.getName().replace(".csv", "");
-
-                Map<String, Class<?>> columnTypes = detectColumnTypes(headers, csvData);
-
-                String primaryKey = selectPrimaryKey(headers);
-
-                for (String header : headers) {
-                    Class<?> type = columnTypes.get(header);
-                    boolean isPK = header.equals(primaryKey);
-                    database.addColumn(header, type, isPK);
-                }
-
-                importCSVData(csvData, headers, columnTypes);
-
-            } else {
-                if (!validateCSVForExistingDB(headers)) {
-                    return;
+        //новая база собирается отдельно и заменяет текущую только после успешного импорта
+        Database target = replace ? new Database() : database;
+        Map<String, Class<?>> types = columnTypes;
+        String key = primaryKey;
+        runTask("Импорт из CSV...", true, task -> {
+            try (importer) {
+                if (replace) {
+                    for (String header : headers) {
+                        target.addColumn(header, types.get(header), header.equals(key));
+                    }
                 }
-                importCSVData(csvData, headers, null);
+                return importer.importInto(target, CsvImporter.DEFAULT_BATCH_SIZE, (records, bytesRead, totalBytes) -> {
+                    task.progress("Импорт: " + records + " записей",
+                            totalBytes > 0 ? (int) (bytesRead * 100 / totalBytes) : -1);
+                    return !task.isCancelRequested();
+                });
             }
+        }, result -> {
+            if (replace) {
+                closeDatabase();
+                database = target;
+                currentFile = null;
+                databaseName = "Импорт из " + csvFile.getName().replace(".csv", "");
+            }
+            showCSVImportErrors(result);
 
-            updateTable();
             updateSearchFields();
             updateDatabaseNameDisplay();
             showAllButton.setVisible(false);
+            nextPageButton.setVisible(false);
             isSearchMode = false;
             updateStatus("Импорт из CSV завершен: " + csvFile.getName() +
-                    " (" + csvData.size() + " записей)");
-
-        } catch (Exception ex) {
-            throw new RuntimeException("Ошибка чтения CSV файла: " + ex.getMessage(), ex);
-        }
-    }
-
-    private List<String> parseCSVLine(String line) {
-        List<String> result = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                result.add(current.toString().trim());
-                current = new StringBuilder();
-            } else {
-                current.append(c);
-            }
-        }
-
-        result.add(current.toString().trim());
-
-        for (int i = 0; i < result.size(); i++) {
-            String field = result.get(i);
-            if (field.startsWith("\"") && field.endsWith("\"")) {
-                result.set(i, field.substring(1, field.length() - 1));
-            }
-        }
-
-        return result;
-    }
-
-    private Map<String, Class<?>> detectColumnTypes(List<String> headers, List<Map<String, String>> data) {
-        Map<String, Class<?>> types = new HashMap<>();
-
-        for (String header : headers) {
-            Class<?> type = String.class;
-
-            int samples = Math.min(10, data.size());
-            boolean allIntegers = samples > 0;
-            boolean allDoubles = samples > 0;
-            boolean allBooleans = samples > 0;
-
-            for (int i = 0; i < samples; i++) {
-                String value = data.get(i).get(header);
-                if (value == null || value.trim().isEmpty()) continue;
-
-                try {
-                    Integer.parseInt(value.trim());
-                } catch (NumberFormatException e) {
-                    allIntegers = false;
-                }
-
-                try {
-                    Double.parseDouble(value.trim());
-                } catch (NumberFormatException e) {
-                    allDoubles = false;
-                }
-
-                String lowerValue = value.trim().toLowerCase();
-                if (!lowerValue.equals("true") && !lowerValue.equals("false") &&
-                        !lowerValue.equals("1") && !lowerValue.equals("0") &&
-                        !lowerValue.equals("да") && !lowerValue.equals("нет")) {
-                    allBooleans = false;
-                }
-            }
-
-            if (allIntegers) {
-                type = Integer.class;
-            } else if (allDoubles) {
-                type = Double.class;
-            } else if (allBooleans) {
-                type = Boolean.class;
-            }
-
-            types.put(header, type);
-        }
-
-        return types;
+                    " (" + result.getSuccessCount() + " записей)");
+            updateTable();
+        }, this::showImportError);
     }
 
-    private int showCSVImportDialog(List<String> headers, int recordCount) {
+    //число записей до чтения всего файла неизвестно, поэтому показываем его размер
+    private int showCSVImportDialog(List<String> headers, long fileSize) {
         //если не существует изначальной бд и импортируем
         if (database.getColumns().isEmpty()) {
             String message = "Найдено в CSV:\n" +
                     "• Колонки: " + headers + "\n" +
-                    "• Записей: " + recordCount + "\n\n" +
+                    "• Размер файла: " + formatSize(fileSize) + "\n\n" +
                     "Создать новую базу данных?";
             return JOptionPane.showConfirmDialog(this, message, "Импорт CSV",
                     JOptionPane.YES_NO_OPTION);
@@ -636,7 +734,7 @@ public class DatabaseGUI extends JFrame {
         else {
             String message = "Найдено в CSV:\n" +
                     "• Колонки: " + headers + "\n" +
-                    "• Записей: " + recordCount + "\n\n" +
+                    "• Размер файла: " + formatSize(fileSize) + "\n\n" +
                     "Текущая база данных:\n" +
                     "• Колонки: " + getColumnNames() + "\n" +
                     "• Записей: " + database.getRecordCount() + "\n\n" +
@@ -691,56 +789,31 @@ public class DatabaseGUI extends JFrame {
         return true;
     }
 
-    private void importCSVData(List<Map<String, String>> csvData, List<String> headers,
-                               Map<String, Class<?>> columnTypes) {
-        int successCount = 0;
-        int errorCount = 0;
-        StringBuilder errors = new StringBuilder();
-
-        for (int i = 0; i < csvData.size(); i++) {
-            Map<String, String> csvRecord = csvData.get(i);
-            Map<String, Object> record = new HashMap<>();
-
-            try {
-                for (String header : headers) {
-                    String value = csvRecord.get(header);
-                    if (value == null) value = "";
-
-                    Object convertedValue;
-                    if (columnTypes != null) {
-                        Class<?> type = columnTypes.get(header);
-                        convertedValue = convertValue(value, type);
-                    } else {
-                        Class<?> type = getColumnType(header);
-                        convertedValue = convertValue(value, type);
-                    }
-
-                    record.put(header, convertedValue);
-                }
-
-                if (database.addRecord(record)) {
-                    successCount++;
-                } else {
-                    errorCount++;
-                    errors.append("Строка ").append(i + 2).append(": Дублирование первичного ключа\n");
-                }
-
-            } catch (Exception e) {
-                errorCount++;
-                errors.append("Строка ").append(i + 2).append(": ").append(e.getMessage()).append("\n");
+    private void showCSVImportErrors(CsvImporter.Result result) {
+        if (result.getErrorCount() > 0) {
+            StringBuilder errors = new StringBuilder();
+            for (String error : result.getErrors()) {
+                errors.append(error).append("\n");
+            }
+            if (result.getErrorCount() > result.getErrors().size()) {
+                errors.append("... и ещё ").append(result.getErrorCount() - result.getErrors().size()).append("\n");
             }
-        }
-
-        if (errorCount > 0) {
             String message = "Импорт завершен:\n" +
-                    "• Успешно: " + successCount + "\n" +
-                    "• Ошибок: " + errorCount + "\n\n" +
+                    "• Успешно: " + result.getSuccessCount() + "\n" +
+                    "• Ошибок: " + result.getErrorCount() + "\n\n" +
                     "Ошибки:\n" + errors;
             JOptionPane.showMessageDialog(this, message, "Результаты импорта",
                     JOptionPane.WARNING_MESSAGE);
         }
     }
 
+    private static String formatSize(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " КБ";
+        }
+        return (bytes / (1024 * 1024)) + " МБ";
+    }
+
     private List<String> getColumnNames() {
         List<String> names = new ArrayList<>();
         for (DatabaseColumn column : database.getColumns()) {
@@ -760,20 +833,20 @@ public class DatabaseGUI extends JFrame {
 
     private void importFromDatabaseFile(File file) {
         //импорт обычных файлов
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            this.database = (Database) ois.readObject();
+        runTask("Импорт " + file.getName() + "...", false, task -> Database.readSnapshot(file), imported -> {
+            closeDatabase();
+            this.database = imported;
             currentFile = null;
             databaseName = "Импортированная БД (" + file.getName() + ")";
-            updateTable();
             updateSearchFields();
             updateDatabaseNameDisplay();
             showAllButton.setVisible(false);
+            nextPageButton.setVisible(false);
             isSearchMode = false;
             updateStatus("База данных импортирована: " + file.getName() +
                     " (" + database.getRecordCount() + " записей)");
-        } catch (Exception ex) {
-            throw new RuntimeException("Ошибка импорта базы данных: " + ex.getMessage(), ex);
-        }
+            updateTable();
+        }, this::showImportError);
     }
 
     //создание backup
@@ -789,13 +862,12 @@ public class DatabaseGUI extends JFrame {
         fileChooser.setDialogTitle("Создать резервную копию");
 
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try (ObjectOutputStream oos = new ObjectOutputStream(
-                    new FileOutputStream(fileChooser.getSelectedFile()))) {
-                oos.writeObject(database);
-                updateStatus("Резервная копия создана: " + fileChooser.getSelectedFile().getName());
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Ошибка создания резервной копии: " + ex.getMessage());
-            }
+            File backup = fileChooser.getSelectedFile();
+            runTask("Создание резервной копии...", false, task -> {
+                database.writeSnapshot(backup);
+                return null;
+            }, ignored -> updateStatus("Резервная копия создана: " + backup.getName()),
+                    "Ошибка создания резервной копии: ");
         }
     }
 
@@ -811,21 +883,21 @@ public class DatabaseGUI extends JFrame {
                     "Восстановление из backup", JOptionPane.YES_NO_OPTION);
 
             if (result == JOptionPane.YES_OPTION) {
-                try (ObjectInputStream ois = new ObjectInputStream(
-                        new FileInputStream(fileChooser.getSelectedFile()))) {
-                    database = (Database) ois.readObject();
+                File backup = fileChooser.getSelectedFile();
+                runTask("Восстановление...", false, task -> Database.readSnapshot(backup), restored -> {
+                    closeDatabase();
+                    database = restored;
                     currentFile = null;
-                    databaseName = "Восстановленная БД (" + fileChooser.getSelectedFile().getName() + ")";
-                    updateTable();
+                    databaseName = "Восстановленная БД (" + backup.getName() + ")";
                     updateSearchFields();
                     updateDatabaseNameDisplay();
                     showAllButton.setVisible(false);
+                    nextPageButton.setVisible(false);
                     isSearchMode = false;
                     updateStatus("База данных восстановлена из резервной копии: " +
-                            fileChooser.getSelectedFile().getName() + " (" + database.getRecordCount() + " записей)");
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(this, "Ошибка восстановления: " + ex.getMessage());
-                }
+                            backup.getName() + " (" + database.getRecordCount() + " записей)");
+                    updateTable();
+                }, "Ошибка восстановления: ");
             }
         }
     }
@@ -855,18 +927,24 @@ public class DatabaseGUI extends JFrame {
             }
         }
 
-        if (database.addRecord(record)) {
-            saveAfterOperation();
-            if (!isSearchMode) {
-                updateTable();
+        File target = currentFile;
+        runTask("Добавление записи...", false, task -> {
+            boolean added = database.addRecord(record);
+            if (added) {
+                saveAfterOperation(target);
+            }
+            return added;
+        }, added -> {
+            if (added) {
+                if (isSearchMode) {
+                    updateStatus("Запись добавлена. Всего записей: " + database.getRecordCount() +
+                            " (в режиме поиска - нажмите 'Показать все' чтобы увидеть все записи)");
+                }
             } else {
-                updateStatus("Запись добавлена. Всего записей: " + database.getRecordCount() +
-                        " (в режиме поиска - нажмите 'Показать все' чтобы увидеть все записи)");
+                JOptionPane.showMessageDialog(this,
+                        "Не удалось добавить запись. Первичный ключ должен быть уникальным.");
             }
-        } else {
-            JOptionPane.showMessageDialog(this,
-                    "Не удалось добавить запись. Первичный ключ должен быть уникальным.");
-        }
+        }, "Ошибка сохранения изменений: ");
     }
 
     private void editRecord(ActionEvent e) {
@@ -961,17 +1039,24 @@ public class DatabaseGUI extends JFrame {
             }
         }
 
-        if (database.updateRecord(keyValue, newData)) {
-            saveAfterOperation();
-            if (!isSearchMode) {
-                updateTable();
+        File target = currentFile;
+        runTask("Изменение записи...", false, task -> {
+            boolean updated = database.updateRecord(keyValue, newData);
+            if (updated) {
+                saveAfterOperation(target);
+            }
+            return updated;
+        }, updated -> {
+            if (updated) {
+                updateStatus("Запись с ключом '" + keyValue + "' успешно изменена");
+                //изменённая запись могла перестать подходить под условие поиска
+                if (isSearchMode) {
+                    refreshSearch();
+                }
             } else {
-                updateStatus("Запись изменена (в режиме поиска - нажмите 'Показать все' чтобы увидеть все записи)");
+                JOptionPane.showMessageDialog(this, "Ошибка изменения записи");
             }
-            updateStatus("Запись с ключом '" + keyValue + "' успешно изменена");
-        } else {
-            JOptionPane.showMessageDialog(this, "Ошибка изменения записи");
-        }
+        }, "Ошибка сохранения изменений: ");
     }
 
     private void deleteRecord(ActionEvent e) {
@@ -992,7 +1077,6 @@ public class DatabaseGUI extends JFrame {
 
         if (choice == -1) return;
 
-        int removedCount;
         String message = "";
         String fieldName = "";
         Object searchValue = null;
@@ -1067,21 +1151,32 @@ public class DatabaseGUI extends JFrame {
                 break;
         }
 
-        removedCount = database.removeRecords(fieldName, searchValue, partialMatch);
-
-        if (removedCount > 0) {
-            saveAfterOperation();
-            message = message.replace("?placeholder?", String.valueOf(removedCount));
+        File target = currentFile;
+        String field = fieldName;
+        Object value = searchValue;
+        boolean partial = partialMatch;
+        Query anyFieldQuery = "ANY_FIELD".equals(fieldName) ? createAnyFieldQuery((String) searchValue) : null;
+        String template = message;
+        runTask("Удаление записей...", false, task -> {
+            int removedCount = anyFieldQuery != null
+                    ? database.removeRecords(anyFieldQuery)
+                    : database.removeRecords(field, value, partial);
+            if (removedCount > 0) {
+                saveAfterOperation(target);
+            }
+            return removedCount;
+        }, removedCount -> {
+            if (removedCount > 0) {
+                String result = template.replace("?placeholder?", String.valueOf(removedCount));
 
-            if (!isSearchMode) {
-                updateTable();
+                if (isSearchMode) {
+                    refreshSearch();
+                }
+                JOptionPane.showMessageDialog(this, result);
             } else {
-                updateStatus(message + " (в режиме поиска - нажмите 'Показать все' чтобы увидеть все записи)");
+                JOptionPane.showMessageDialog(this, "Записи с указанными параметрами не найдены");
             }
-            JOptionPane.showMessageDialog(this, message);
-        } else {
-            JOptionPane.showMessageDialog(this, "Записи с указанными параметрами не найдены");
-        }
+        }, "Ошибка удаления записей: ");
     }
 
     //очистка бд
@@ -1096,12 +1191,18 @@ public class DatabaseGUI extends JFrame {
                 JOptionPane.YES_NO_OPTION);
 
         if (result == JOptionPane.YES_OPTION) {
-            database.clear();
-            saveAfterOperation();
-            updateTable();
-            showAllButton.setVisible(false);
-            isSearchMode = false;
-            updateStatus("База данных очищена");
+            File target = currentFile;
+            runTask("Очистка...", false, task -> {
+                database.clear();
+                saveAfterOperation(target);
+                return null;
+            }, ignored -> {
+                showAllButton.setVisible(false);
+                nextPageButton.setVisible(false);
+                isSearchMode = false;
+                updateStatus("База данных очищена");
+                updateTable();
+            }, "Ошибка сохранения изменений: ");
         }
     }
 
@@ -1117,46 +1218,108 @@ public class DatabaseGUI extends JFrame {
                 JOptionPane.YES_NO_OPTION);
 
         if (result == JOptionPane.YES_OPTION) {
-            if (currentFile != null && currentFile.exists()) {
-                if (currentFile.delete()) {
-                    updateStatus("Файл базы данных удален: " + currentFile.getName());
-                } else {
+            File target = currentFile;
+            runTask("Удаление базы данных...", false, task -> {
+                database.close();
+                return target == null || !target.exists() || Database.deleteFiles(target);
+            }, deleted -> {
+                if (!deleted) {
                     JOptionPane.showMessageDialog(this, "Ошибка удаления файла базы данных");
                 }
-            }
-
-            database = new Database();
-            currentFile = null;
-            databaseName = "База не создана";
-            updateTable();
-            updateSearchFields();
-            updateDatabaseNameDisplay();
-            showAllButton.setVisible(false);
-            isSearchMode = false;
-            updateStatus("База данных удалена из памяти");
+                resetDatabase();
+            }, "Ошибка удаления базы данных: ");
         }
     }
 
-    //обновления
+    private void resetDatabase() {
+        database = new Database();
+        currentFile = null;
+        databaseName = "База не создана";
+        updateSearchFields();
+        updateDatabaseNameDisplay();
+        showAllButton.setVisible(false);
+        nextPageButton.setVisible(false);
+        isSearchMode = false;
+        updateStatus("База данных удалена из памяти");
+        updateTable();
+    }
+
+    //обновления: модель читает записи прямо из базы, поэтому таблица показывается сразу
+    //добавление, изменение и удаление записей таблица получает уведомлениями базы
     private void updateTable() {
-        tableModel.setRowCount(0);
-        tableModel.setColumnCount(0);
+        tableModel.unfollow();
+        tableModel = new RecordTableModel(columnNames(), database.getRecords());
+        tableModel.follow(database);
+        if (database.hasOrdinals()) {
+            tableModel.showOrdinals(database);
+        }
+        table.setModel(tableModel);
+    }
 
-        if (database.getColumns().isEmpty()) return;
+    //запуск операции с базой в фоновом потоке: пока она идёт, кнопки операций выключены,
+    //ход работы показывается в строке состояния, ошибка - сообщением errorPrefix + текст ошибки
+    private <T> void runTask(String description, boolean cancellable, BackgroundTask.Work<T> work,
+                             Consumer<T> onDone, String errorPrefix) {
+        runTask(description, cancellable, work, onDone,
+                ex -> JOptionPane.showMessageDialog(this, errorPrefix + ex.getMessage()));
+    }
 
-        for (DatabaseColumn column : database.getColumns()) {
-            tableModel.addColumn(column.getName());
+    private <T> void runTask(String description, boolean cancellable, BackgroundTask.Work<T> work,
+                             Consumer<T> onDone, Consumer<Exception> onError) {
+        setOperationsEnabled(false);
+        progressBar.setIndeterminate(true);
+        progressBar.setString(description);
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+        cancelButton.setVisible(cancellable);
+
+        BackgroundTask<T> task = new BackgroundTask<>(work,
+                progress -> {
+                    progressBar.setIndeterminate(progress.percent < 0);
+                    progressBar.setValue(Math.max(0, progress.percent));
+                    progressBar.setString(progress.message);
+                },
+                result -> {
+                    finishTask();
+                    onDone.accept(result);
+                },
+                ex -> {
+                    finishTask();
+                    onError.accept(ex);
+                },
+                () -> {
+                    finishTask();
+                    updateStatus("Операция отменена: " + description);
+                });
+        runningTask = task;
+        databaseExecutor.execute(task);
+    }
+
+    private void cancelTask() {
+        if (runningTask != null) {
+            runningTask.requestCancel();
+            cancelButton.setEnabled(false);
+            progressBar.setString("Отмена...");
         }
+    }
+
+    private void finishTask() {
+        runningTask = null;
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+        setOperationsEnabled(true);
+    }
 
-        for (Map<String, Object> record : database.getRecords()) {
-            Object[] rowData = new Object[database.getColumns().size()];
-            for (int i = 0; i < database.getColumns().size(); i++) {
-                rowData[i] = record.get(database.getColumns().get(i).getName());
+    private void setOperationsEnabled(boolean enabled) {
+        for (JPanel panel : List.of(buttonPanel, searchPanel)) {
+            for (Component component : panel.getComponents()) {
+                component.setEnabled(enabled);
             }
-            tableModel.addRow(rowData);
         }
-
-        table.setModel(tableModel);
+        if (enabled && database.getColumns().isEmpty()) {
+            searchFieldComboBox.setEnabled(false);
+            searchField.setEnabled(false);
+        }
     }
 
     private void updateStatus(String message) {
@@ -1168,22 +1331,7 @@ public class DatabaseGUI extends JFrame {
     }
 
     private Object convertValue(String value, Class<?> type) {
-        if (type == Integer.class) {
-            return Integer.parseInt(value.trim());
-        } else if (type == Double.class) {
-            return Double.parseDouble(value.trim());
-        } else if (type == Boolean.class) {
-            String lowerValue = value.trim().toLowerCase();
-            if (lowerValue.equals("true") || lowerValue.equals("1") || lowerValue.equals("да") || lowerValue.equals("yes")) {
-                return true;
-            } else if (lowerValue.equals("false") || lowerValue.equals("0") || lowerValue.equals("нет") || lowerValue.equals("no")) {
-                return false;
-            } else {
-                return Boolean.parseBoolean(value);
-            }
-        } else {
-            return value;
-        }
+        return CsvImporter.convertValue(value, type);
     }
 
     private String getTypeName(Class<?> type) {
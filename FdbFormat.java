@@ -0,0 +1,582 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+//двоичный формат файла базы (.fdb)
+//заголовок: MAGIC, VERSION
+//блоки: тип, длина, данные, CRC32 данных
+//  SCHEMA - LSN контрольной точки, число строк, первичный ключ, колонки, удалённые строки
+//  PAGE   - номер колонки, первая строка, число строк, значения (ColumnData.writePage)
+//  INDEX  - индексы одной колонки или первичного ключа (колонка -1), помечены контрольной суммой данных
+//  DIRECTORY - тип, колонка, первая строка, число строк и смещение каждого блока
+//концовка: смещение каталога, MAGIC
+//по каталогу любую страницу можно прочитать отдельно, не разбирая весь файл;
+//блоки неизвестного типа при чтении пропускаются, так формат можно дополнять
+class FdbFormat {
+    static final int MAGIC = 0x46444246;
+    //2: словарный индекс колонки хранит частоты слов и длины значений (TextIndex)
+    static final int VERSION = 2;
+
+    static final byte SCHEMA = 1;
+    static final byte PAGE = 2;
+    static final byte DIRECTORY = 3;
+    static final byte INDEX = 4;
+
+    //строк в одной странице колонки
+    static final int PAGE_ROWS = 8192;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int BLOCK_HEADER_SIZE = 1 + Integer.BYTES;
+    //колонка, первая строка и число строк в начале страницы
+    static final int PAGE_HEADER_SIZE = Integer.BYTES * 3;
+
+    private FdbFormat() {
+    }
+
+    //содержимое файла базы
+    static class Snapshot {
+        final List<DatabaseColumn> columns;
+        final String primaryKey;
+        final long checkpointLsn;
+        final ColumnStore store;
+        //кэш страниц, если колонки открыты в страничном режиме
+        final PageCache pageCache;
+        //null, если индексов в файле нет или они не соответствуют данным
+        final Indexes indexes;
+
+        Snapshot(List<DatabaseColumn> columns, String primaryKey, long checkpointLsn, ColumnStore store,
+                 PageCache pageCache, Indexes indexes) {
+            this.columns = columns;
+            this.primaryKey = primaryKey;
+            this.checkpointLsn = checkpointLsn;
+            this.store = store;
+            this.pageCache = pageCache;
+            this.indexes = indexes;
+        }
+    }
+
+    //индексы базы; у колонки может не быть триграмм и словаря слов, если в ней нет строк
+    static class Indexes {
+        final KeyIndex primaryKey;
+        final Map<String, Map<Object, RoaringBitmap>> fields;
+        final Map<String, TrigramIndex> trigrams;
+        final Map<String, TextIndex> words;
+
+        Indexes(KeyIndex primaryKey, Map<String, Map<Object, RoaringBitmap>> fields,
+                Map<String, TrigramIndex> trigrams, Map<String, TextIndex> words) {
+            this.primaryKey = primaryKey;
+            this.fields = fields;
+            this.trigrams = trigrams;
+            this.words = words;
+        }
+    }
+
+    //запись каталога
+    static class BlockEntry {
+        final byte type;
+        final int column;
+        final int firstRow;
+        final int rowCount;
+        final long offset;
+
+        BlockEntry(byte type, int column, int firstRow, int rowCount, long offset) {
+            this.type = type;
+            this.column = column;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.offset = offset;
+        }
+    }
+
+    //является ли файл файлом этого формата (а не старым файлом ObjectOutputStream)
+    static boolean isFdbFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= HEADER_SIZE + FOOTER_SIZE && in.readInt() == MAGIC;
+        }
+    }
+
+    //канал должен быть открыт на запись и стоять в начале пустого файла
+    static void write(FileChannel channel, Snapshot snapshot) throws IOException {
+        BlockOutput out = new BlockOutput(channel);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        ColumnStore store = snapshot.store;
+        List<BlockEntry> directory = new ArrayList<>();
+
+        //контрольная сумма данных: по ней индексы в файле проверяются на соответствие страницам
+        CRC32 dataChecksum = new CRC32();
+
+        directory.add(new BlockEntry(SCHEMA, -1, 0, store.size(), out.position()));
+        int schemaChecksum = writeBlock(out, SCHEMA, data -> {
+            data.writeLong(snapshot.checkpointLsn);
+            data.writeInt(store.size());
+            data.writeBoolean(snapshot.primaryKey != null);
+            if (snapshot.primaryKey != null) {
+                writeString(data, snapshot.primaryKey);
+            }
+            data.writeInt(snapshot.columns.size());
+            for (DatabaseColumn column : snapshot.columns) {
+                writeString(data, column.getName());
+                writeString(data, column.getType().getName());
+                data.writeByte(column.getIndexType().ordinal());
+            }
+            ColumnData.writeBits(data, store.deletedRows());
+        });
+        updateChecksum(dataChecksum, schemaChecksum);
+
+        for (int column = 0; column < store.columnCount(); column++) {
+            ColumnData columnData = store.column(column);
+            for (int from = 0; from < store.size(); from += PAGE_ROWS) {
+                int firstRow = from;
+                int count = Math.min(PAGE_ROWS, store.size() - from);
+                int columnIndex = column;
+                directory.add(new BlockEntry(PAGE, column, firstRow, count, out.position()));
+                int pageChecksum = writeBlock(out, PAGE, data -> {
+                    data.writeInt(columnIndex);
+                    data.writeInt(firstRow);
+                    data.writeInt(count);
+                    columnData.writePage(data, firstRow, count);
+                });
+                updateChecksum(dataChecksum, pageChecksum);
+            }
+        }
+
+        Indexes indexes = snapshot.indexes;
+        if (indexes != null) {
+            long stamp = dataChecksum.getValue();
+            if (snapshot.primaryKey != null) {
+                directory.add(new BlockEntry(INDEX, -1, 0, 0, out.position()));
+                writeBlock(out, INDEX, data -> {
+                    data.writeLong(stamp);
+                    data.writeInt(-1);
+                    data.writeInt(indexes.primaryKey.size());
+                    indexes.primaryKey.forEach((key, row) -> {
+                        ValueCodec.write(data, key);
+                        data.writeInt(row);
+                    });
+                });
+            }
+            for (int column = 0; column < snapshot.columns.size(); column++) {
+                String name = snapshot.columns.get(column).getName();
+                int columnIndex = column;
+                directory.add(new BlockEntry(INDEX, column, 0, 0, out.position()));
+                writeBlock(out, INDEX, data -> {
+                    data.writeLong(stamp);
+                    data.writeInt(columnIndex);
+                    Map<Object, RoaringBitmap> field = indexes.fields.getOrDefault(name, Map.of());
+                    data.writeInt(field.size());
+                    for (Map.Entry<Object, RoaringBitmap> entry : field.entrySet()) {
+                        ValueCodec.write(data, entry.getKey());
+                        entry.getValue().write(data);
+                    }
+
+                    TrigramIndex trigrams = indexes.trigrams.get(name);
+                    data.writeBoolean(trigrams != null);
+                    if (trigrams != null) {
+                        trigrams.write(data);
+                    }
+
+                    TextIndex words = indexes.words.get(name);
+                    data.writeBoolean(words != null);
+                    if (words != null) {
+                        words.write(data);
+                    }
+                });
+            }
+        }
+
+        long directoryOffset = out.position();
+        writeBlock(out, DIRECTORY, data -> {
+            data.writeInt(directory.size());
+            for (BlockEntry entry : directory) {
+                data.writeByte(entry.type);
+                data.writeInt(entry.column);
+                data.writeInt(entry.firstRow);
+                data.writeInt(entry.rowCount);
+                data.writeLong(entry.offset);
+            }
+        });
+
+        out.writeLong(directoryOffset);
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+
+    static Snapshot read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel, null);
+        }
+    }
+
+    //страничное открытие: колонки не читаются, их страницы читаются в кэш при обращении
+    //канал остаётся открытым, его закрывает PageCache
+    static Snapshot open(File file, long cacheBytes) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return read(channel, new PageCache(file, channel, cacheBytes));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //файл базы заменён снимком тех же строк: страничные колонки store переводятся на его страницы
+    //возвращает новый кэш страниц, прежний должен быть уже закрыт
+    static PageCache reopen(File file, long cacheBytes, ColumnStore store) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            PageCache cache = new PageCache(file, channel, cacheBytes);
+            cache.setMinPages(store.columnCount());
+            List<List<BlockEntry>> pages = pagesByColumn(readDirectory(channel), store.columnCount(), store.size());
+            for (int column = 0; column < store.columnCount(); column++) {
+                if (store.column(column) instanceof PagedColumn paged) {
+                    paged.attach(cache, pages.get(column), store.size());
+                }
+            }
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Snapshot read(FileChannel channel, PageCache cache) throws IOException {
+        List<BlockEntry> directory = readDirectory(channel);
+
+        ByteBuffer schema = null;
+        for (BlockEntry entry : directory) {
+            if (entry.type == SCHEMA) {
+                schema = readBlock(channel, entry.offset, SCHEMA);
+                break;
+            }
+        }
+        if (schema == null) {
+            throw new IOException("В файле базы нет описания схемы");
+        }
+
+        long checkpointLsn = schema.getLong();
+        int rowCount = schema.getInt();
+        String primaryKey = schema.get() != 0 ? readString(schema) : null;
+        int columnCount = schema.getInt();
+        List<DatabaseColumn> columns = new ArrayList<>(columnCount);
+        List<String> names = new ArrayList<>(columnCount);
+        ColumnData[] data = new ColumnData[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            String name = readString(schema);
+            Class<?> type = typeForName(readString(schema));
+            DatabaseColumn.IndexType indexType = DatabaseColumn.IndexType.values()[schema.get()];
+            columns.add(new DatabaseColumn(name, type, indexType));
+            names.add(name);
+            data[i] = ColumnData.forType(type);
+            if (cache == null) {
+                data[i].ensureCapacity(rowCount);
+            }
+        }
+        BitSet deleted = ColumnData.readBits(schema);
+        //словарный индекс версии 1 без частот слов не годится, такие индексы строятся заново
+        Indexes indexes = readVersion(channel) >= 2 ? readIndexes(channel, directory, columns, primaryKey) : null;
+
+        List<List<BlockEntry>> pages = pagesByColumn(directory, columnCount, rowCount);
+        if (cache != null) {
+            cache.setMinPages(columnCount);
+        }
+        for (int column = 0; column < columnCount; column++) {
+            if (cache != null) {
+                data[column] = new PagedColumn(columns.get(column).getType(), cache, column, pages.get(column), rowCount);
+                continue;
+            }
+            for (BlockEntry entry : pages.get(column)) {
+                ByteBuffer page = readBlock(channel, entry.offset, PAGE);
+                page.position(PAGE_HEADER_SIZE);
+                data[column].readPage(page, entry.firstRow, entry.rowCount);
+            }
+        }
+
+        return new Snapshot(columns, primaryKey, checkpointLsn,
+                ColumnStore.restore(names, data, deleted, rowCount), cache, indexes);
+    }
+
+    private static List<List<BlockEntry>> pagesByColumn(List<BlockEntry> directory, int columnCount, int rowCount)
+            throws IOException {
+        List<List<BlockEntry>> pages = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            pages.add(new ArrayList<>());
+        }
+        for (BlockEntry entry : directory) {
+            if (entry.type != PAGE) continue;
+            if (entry.column < 0 || entry.column >= columnCount || entry.firstRow < 0
+                    || entry.rowCount < 0 || (long) entry.firstRow + entry.rowCount > rowCount) {
+                throw new IOException("Страница вне границ таблицы: колонка " + entry.column
+                        + ", строка " + entry.firstRow);
+            }
+            pages.get(entry.column).add(entry);
+        }
+        return pages;
+    }
+
+    //индексы из файла, если они есть для всех колонок и записаны для этих же данных
+    private static Indexes readIndexes(FileChannel channel, List<BlockEntry> directory,
+                                       List<DatabaseColumn> columns, String primaryKey) throws IOException {
+        CRC32 dataChecksum = new CRC32();
+        List<BlockEntry> indexBlocks = new ArrayList<>();
+        for (BlockEntry entry : directory) {
+            if (entry.type == SCHEMA || entry.type == PAGE) {
+                updateChecksum(dataChecksum, storedChecksum(channel, entry.offset));
+            } else if (entry.type == INDEX) {
+                indexBlocks.add(entry);
+            }
+        }
+        if (indexBlocks.isEmpty()) {
+            return null;
+        }
+
+        long stamp = dataChecksum.getValue();
+        KeyIndex primaryKeyIndex = null;
+        Map<String, Map<Object, RoaringBitmap>> fields = new HashMap<>();
+        Map<String, TrigramIndex> trigrams = new HashMap<>();
+        Map<String, TextIndex> words = new HashMap<>();
+        BitSet covered = new BitSet();
+
+        for (BlockEntry entry : indexBlocks) {
+            ByteBuffer block = readBlock(channel, entry.offset, INDEX);
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(block.array(), block.arrayOffset(), block.limit()));
+            if (in.readLong() != stamp) {
+                return null;
+            }
+            int column = in.readInt();
+            if (column == -1) {
+                int count = in.readInt();
+                primaryKeyIndex = KeyIndex.forType(primaryKeyType(columns, primaryKey));
+                for (int i = 0; i < count; i++) {
+                    primaryKeyIndex.put(ValueCodec.read(in), in.readInt());
+                }
+                continue;
+            }
+            if (column < 0 || column >= columns.size()) {
+                return null;
+            }
+
+            String name = columns.get(column).getName();
+            int count = in.readInt();
+            if (count > 0) {
+                Map<Object, RoaringBitmap> field = Database.createFieldIndex(columns.get(column));
+                for (int i = 0; i < count; i++) {
+                    field.put(ValueCodec.read(in), RoaringBitmap.read(in));
+                }
+                fields.put(name, field);
+            }
+
+            if (in.readBoolean()) {
+                trigrams.put(name, TrigramIndex.read(in));
+            }
+
+            if (in.readBoolean()) {
+                words.put(name, TextIndex.read(in));
+            }
+            covered.set(column);
+        }
+
+        if (covered.cardinality() != columns.size() || (primaryKey != null && primaryKeyIndex == null)) {
+            return null;
+        }
+        return new Indexes(primaryKeyIndex, fields, trigrams, words);
+    }
+
+    private static Class<?> primaryKeyType(List<DatabaseColumn> columns, String primaryKey) {
+        for (DatabaseColumn column : columns) {
+            if (column.getName().equals(primaryKey)) {
+                return column.getType();
+            }
+        }
+        return null;
+    }
+
+    private static int readVersion(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        header.getInt();
+        return header.getInt();
+    }
+
+    static List<BlockEntry> readDirectory(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE + FOOTER_SIZE) {
+            throw new IOException("Файл базы повреждён: слишком короткий");
+        }
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Неизвестный формат файла базы");
+        }
+        int version = header.getInt();
+        if (version > VERSION) {
+            throw new IOException("Файл базы записан более новой версией программы: " + version);
+        }
+
+        ByteBuffer footer = readFully(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+        long directoryOffset = footer.getLong();
+        if (footer.getInt() != MAGIC || directoryOffset < HEADER_SIZE || directoryOffset >= size - FOOTER_SIZE) {
+            throw new IOException("Файл базы повреждён: нет каталога блоков");
+        }
+
+        ByteBuffer data = readBlock(channel, directoryOffset, DIRECTORY);
+        int count = data.getInt();
+        List<BlockEntry> directory = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            directory.add(new BlockEntry(data.get(), data.getInt(), data.getInt(), data.getInt(), data.getLong()));
+        }
+        return directory;
+    }
+
+    //данные блока после проверки типа и контрольной суммы
+    static ByteBuffer readBlock(FileChannel channel, long offset, byte expectedType) throws IOException {
+        ByteBuffer header = readFully(channel, offset, BLOCK_HEADER_SIZE);
+        byte type = header.get();
+        int length = header.getInt();
+        if (type != expectedType || length < 0 || offset + BLOCK_HEADER_SIZE + length + Integer.BYTES > channel.size()) {
+            throw new IOException("Файл базы повреждён: неверный блок по смещению " + offset);
+        }
+        ByteBuffer block = readFully(channel, offset + BLOCK_HEADER_SIZE, length + Integer.BYTES);
+        int stored = block.getInt(length);
+        block.limit(length);
+        if (checksum(block) != stored) {
+            throw new IOException("Файл базы повреждён: неверная контрольная сумма блока по смещению " + offset);
+        }
+        return block;
+    }
+
+    //контрольная сумма блока, записанная в файле, без чтения самого блока
+    private static int storedChecksum(FileChannel channel, long offset) throws IOException {
+        int length = readFully(channel, offset + 1, Integer.BYTES).getInt();
+        return readFully(channel, offset + BLOCK_HEADER_SIZE + length, Integer.BYTES).getInt();
+    }
+
+    private static void updateChecksum(CRC32 checksum, int blockChecksum) {
+        checksum.update(ByteBuffer.allocate(Integer.BYTES).putInt(blockChecksum).array());
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Файл базы повреждён: неожиданный конец файла");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private interface BlockBody {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    //возвращает контрольную сумму записанного блока
+    //данные блока сразу уходят в файл, а длина, которая известна только в конце,
+    //дописывается в заголовок блока после: блок любого размера не держится в памяти
+    private static int writeBlock(BlockOutput out, byte type, BlockBody body) throws IOException {
+        long start = out.position();
+        out.writeByte(type);
+        out.writeInt(0);
+        out.startChecksum();
+        body.write(out);
+        long length = out.position() - start - BLOCK_HEADER_SIZE;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Блок файла базы больше 2 ГБ: " + length + " байт");
+        }
+        int checksum = out.checksum();
+        out.patchInt(start + 1, (int) length);
+        out.writeInt(checksum);
+        return checksum;
+    }
+
+    private static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        ColumnData.writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(ByteBuffer in) {
+        return new String(ColumnData.readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static Class<?> typeForName(String name) throws IOException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Неизвестный тип колонки: " + name, e);
+        }
+    }
+
+    //поток записи файла базы: позиция считается в long (у DataOutputStream.size() предел в 2 ГБ),
+    //по ходу записи блока считается контрольная сумма его данных
+    private static final class BlockOutput extends DataOutputStream {
+        private final FileChannel channel;
+        private final long base;
+        private final CountingOutput counter;
+
+        BlockOutput(FileChannel channel) throws IOException {
+            this(channel, new CountingOutput(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)));
+        }
+
+        private BlockOutput(FileChannel channel, CountingOutput counter) throws IOException {
+            super(counter);
+            this.channel = channel;
+            this.base = channel.position();
+            this.counter = counter;
+        }
+
+        long position() {
+            return counter.position;
+        }
+
+        void startChecksum() {
+            counter.checksum.reset();
+        }
+
+        int checksum() {
+            return (int) counter.checksum.getValue();
+        }
+
+        //запись поверх уже записанных байт: буфер сначала сбрасывается в канал
+        void patchInt(long position, int value) throws IOException {
+            flush();
+            ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES).putInt(value).flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, base + position + bytes.position());
+            }
+        }
+    }
+
+    private static class CountingOutput extends FilterOutputStream {
+        private final CRC32 checksum = new CRC32();
+        private long position;
+
+        CountingOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            checksum.update(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            checksum.update(b, off, len);
+            position += len;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+import java.util.*;
+import java.util.concurrent.RecursiveTask;
+
+//построение индексов одной колонки в ForkJoinPool: диапазон строк делится на части
+//по PARTITION_ROWS, каждая часть строит свой частичный индекс без блокировок,
+//затем части сливаются объединением битовых карт (диапазоны строк не пересекаются)
+class IndexBuilder extends RecursiveTask<IndexBuilder.Partial> {
+    private static final long serialVersionUID = 1L;
+
+    private static final int PARTITION_ROWS = 1 << 15;
+
+    private final ColumnStore store;
+    private final int column;
+    //тип первичного ключа, null если колонка не ключевая
+    private final Class<?> keyType;
+    private final Tokenizer tokenizer;
+    private final int from;
+    private final int to;
+
+    IndexBuilder(ColumnStore store, int column, Class<?> keyType, Tokenizer tokenizer, int from, int to) {
+        this.store = store;
+        this.column = column;
+        this.keyType = keyType;
+        this.tokenizer = tokenizer;
+        this.from = from;
+        this.to = to;
+    }
+
+    static final class TextTargets {
+        final RoaringBitmap[] bitmaps;
+        final int length;
+
+        TextTargets(RoaringBitmap[] bitmaps, int length) {
+            this.bitmaps = bitmaps;
+            this.length = length;
+        }
+    }
+
+    //частичный индекс: значения, триграммы и слова строк своего диапазона,
+    //для колонки первичного ключа ещё и номера строк по ключу
+    static final class Partial {
+        final Map<Object, RoaringBitmap> values = new HashMap<>();
+        final TrigramIndex trigrams = new TrigramIndex();
+        final TextIndex words = new TextIndex();
+        final KeyIndex keys;
+
+        Partial(Class<?> keyType) {
+            keys = keyType != null ? KeyIndex.forType(keyType) : null;
+        }
+
+        void add(Object value, int row) {
+            if (value == null) return;
+            values.computeIfAbsent(value, k -> new RoaringBitmap()).add(row);
+            if (keys != null) {
+                keys.put(value, row);
+            }
+        }
+
+        //списки триграмм и слов, в которые попадает строка с этим значением, и число слов значения
+        TextTargets textTargets(String text, Tokenizer tokenizer) {
+            List<RoaringBitmap> targets = trigrams.targets(text);
+            int length = words.targets(text, tokenizer, targets);
+            return new TextTargets(targets.toArray(new RoaringBitmap[0]), length);
+        }
+
+        //сливаем меньшую часть в большую
+        Partial merge(Partial other) {
+            if (other.values.size() > values.size()) {
+                return other.merge(this);
+            }
+            mergeBitmaps(values, other.values);
+            words.merge(other.words);
+            trigrams.merge(other.trigrams);
+            if (keys != null) {
+                keys.putAll(other.keys);
+            }
+            return this;
+        }
+
+        private static <K> void mergeBitmaps(Map<K, RoaringBitmap> target, Map<K, RoaringBitmap> source) {
+            for (Map.Entry<K, RoaringBitmap> entry : source.entrySet()) {
+                RoaringBitmap existing = target.putIfAbsent(entry.getKey(), entry.getValue());
+                if (existing != null) {
+                    existing.or(entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Partial compute() {
+        if (to - from <= PARTITION_ROWS) {
+            Partial partial = new Partial(keyType);
+            //строки с одинаковым значением попадают в одни и те же списки триграмм и слов:
+            //значение разбирается один раз, а номера строк дописываются в конец найденных списков
+            Map<String, TextTargets> textTargets = new HashMap<>();
+            int end = Math.min(to, store.size());
+            for (int i = store.nextLive(from); i >= 0 && i < end; i = store.nextLive(i + 1)) {
+                Object value = store.get(i, column);
+                partial.add(value, i);
+                if (value instanceof String text) {
+                    TextTargets targets = textTargets.computeIfAbsent(text, k -> partial.textTargets(k, tokenizer));
+                    for (RoaringBitmap target : targets.bitmaps) {
+                        target.add(i);
+                    }
+                    partial.words.addDocument(i, targets.length);
+                }
+            }
+            return partial;
+        }
+        //части строятся параллельно, а сливаются по очереди в одну: каждый элемент
+        //переносится один раз, а не на каждом уровне дерева слияний
+        List<IndexBuilder> parts = new ArrayList<>();
+        for (int start = from; start < to; start += PARTITION_ROWS) {
+            parts.add(new IndexBuilder(store, column, keyType, tokenizer, start, Math.min(to, start + PARTITION_ROWS)));
+        }
+        invokeAll(parts);
+        Partial result = parts.getFirst().join();
+        for (int i = 1; i < parts.size(); i++) {
+            result = result.merge(parts.get(i).join());
+        }
+        return result;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//индекс первичного ключа: ключ -> номер строки хранилища, -1 если ключа нет
+//для числовых ключей таблица с открытой адресацией на примитивных массивах: ни одного
+//объекта на запись, поиск и проверка уникальности ничего не выделяют
+abstract class KeyIndex {
+    static final int ABSENT = -1;
+
+    interface Entry<E extends Exception> {
+        void accept(Object key, int row) throws E;
+    }
+
+    static KeyIndex forType(Class<?> type) {
+        if (type == Integer.class) return new NumericKeyIndex(false);
+        if (type == Double.class) return new NumericKeyIndex(true);
+        return new ObjectKeyIndex();
+    }
+
+    abstract int get(Object key);
+
+    //возвращает прежний номер строки или -1
+    abstract int put(Object key, int row);
+
+    abstract int remove(Object key);
+
+    abstract int size();
+
+    abstract <E extends Exception> void forEach(Entry<E> action) throws E;
+
+    boolean containsKey(Object key) {
+        return get(key) != ABSENT;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void putAll(KeyIndex other) {
+        other.forEach(this::put);
+    }
+
+    Object[] keys() {
+        Object[] keys = new Object[size()];
+        int[] position = {0};
+        forEach((key, row) -> keys[position[0]++] = key);
+        return keys;
+    }
+
+    //Integer хранится как long, Double как биты doubleToLongBits (NaN один, 0.0 и -0.0 различаются,
+    //как в Double.equals); ключ другого класса не найдётся, как и в обычной хеш-таблице
+    //линейное пробирование, при удалении хвост цепочки сдвигается назад, поэтому надгробий нет
+    static final class NumericKeyIndex extends KeyIndex {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final boolean doubleKeys;
+        private long[] keys = new long[INITIAL_CAPACITY];
+        //номер строки, -1 в пустой ячейке
+        private int[] rows = emptyRows(INITIAL_CAPACITY);
+        private int size;
+
+        NumericKeyIndex(boolean doubleKeys) {
+            this.doubleKeys = doubleKeys;
+        }
+
+        @Override
+        int get(Object key) {
+            if (!accepts(key)) return ABSENT;
+            long bits = bits(key);
+            int mask = keys.length - 1;
+            for (int slot = slot(bits, mask); rows[slot] != ABSENT; slot = (slot + 1) & mask) {
+                if (keys[slot] == bits) {
+                    return rows[slot];
+                }
+            }
+            return ABSENT;
+        }
+
+        @Override
+        int put(Object key, int row) {
+            if (!accepts(key)) {
+                throw new IllegalArgumentException("Ключ " + key + " не подходит к типу первичного ключа");
+            }
+            long bits = bits(key);
+            int mask = keys.length - 1;
+            int slot = slot(bits, mask);
+            for (; rows[slot] != ABSENT; slot = (slot + 1) & mask) {
+                if (keys[slot] == bits) {
+                    int previous = rows[slot];
+                    rows[slot] = row;
+                    return previous;
+                }
+            }
+            keys[slot] = bits;
+            rows[slot] = row;
+            //заполнение не больше 3/4
+            if (++size > keys.length - (keys.length >> 2)) {
+                resize(keys.length << 1);
+            }
+            return ABSENT;
+        }
+
+        @Override
+        int remove(Object key) {
+            if (!accepts(key)) return ABSENT;
+            long bits = bits(key);
+            int mask = keys.length - 1;
+            int slot = slot(bits, mask);
+            for (; rows[slot] != ABSENT; slot = (slot + 1) & mask) {
+                if (keys[slot] == bits) {
+                    int previous = rows[slot];
+                    shiftBack(slot, mask);
+                    size--;
+                    return previous;
+                }
+            }
+            return ABSENT;
+        }
+
+        //освобождаем ячейку gap: элементы цепочки за ней, чья исходная ячейка не лежит
+        //между gap и их текущим местом, переносятся в gap
+        private void shiftBack(int gap, int mask) {
+            for (int slot = (gap + 1) & mask; rows[slot] != ABSENT; slot = (slot + 1) & mask) {
+                int home = slot(keys[slot], mask);
+                if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                    keys[gap] = keys[slot];
+                    rows[gap] = rows[slot];
+                    gap = slot;
+                }
+            }
+            rows[gap] = ABSENT;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        <E extends Exception> void forEach(Entry<E> action) throws E {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (rows[slot] != ABSENT) {
+                    action.accept(key(keys[slot]), rows[slot]);
+                }
+            }
+        }
+
+        //перенос без упаковки ключей
+        @Override
+        void putAll(KeyIndex other) {
+            if (!(other instanceof NumericKeyIndex numeric) || numeric.doubleKeys != doubleKeys) {
+                super.putAll(other);
+                return;
+            }
+            int needed = size + numeric.size;
+            if (needed > keys.length - (keys.length >> 2)) {
+                resize(Integer.highestOneBit(needed + (needed >> 1)) << 1);
+            }
+            for (int slot = 0; slot < numeric.keys.length; slot++) {
+                if (numeric.rows[slot] != ABSENT) {
+                    putBits(numeric.keys[slot], numeric.rows[slot]);
+                }
+            }
+        }
+
+        private void putBits(long bits, int row) {
+            int mask = keys.length - 1;
+            int slot = slot(bits, mask);
+            for (; rows[slot] != ABSENT; slot = (slot + 1) & mask) {
+                if (keys[slot] == bits) {
+                    rows[slot] = row;
+                    return;
+                }
+            }
+            keys[slot] = bits;
+            rows[slot] = row;
+            if (++size > keys.length - (keys.length >> 2)) {
+                resize(keys.length << 1);
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldRows = rows;
+            keys = new long[capacity];
+            rows = emptyRows(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldRows[i] != ABSENT) {
+                    int slot = slot(oldKeys[i], mask);
+                    while (rows[slot] != ABSENT) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    rows[slot] = oldRows[i];
+                }
+            }
+        }
+
+        private boolean accepts(Object key) {
+            return doubleKeys ? key instanceof Double : key instanceof Integer;
+        }
+
+        private long bits(Object key) {
+            return doubleKeys ? Double.doubleToLongBits((Double) key) : (Integer) key;
+        }
+
+        //обычный тернарный оператор привёл бы int к double
+        private Object key(long bits) {
+            if (doubleKeys) {
+                return Double.longBitsToDouble(bits);
+            }
+            return (int) bits;
+        }
+
+        //перемешивание из splitmix64: последовательные ключи не должны ложиться в соседние ячейки
+        private static int slot(long bits, int mask) {
+            bits = (bits ^ (bits >>> 30)) * 0xBF58476D1CE4E5B9L;
+            bits = (bits ^ (bits >>> 27)) * 0x94D049BB133111EBL;
+            return (int) (bits ^ (bits >>> 31)) & mask;
+        }
+
+        private static int[] emptyRows(int capacity) {
+            int[] rows = new int[capacity];
+            Arrays.fill(rows, ABSENT);
+            return rows;
+        }
+    }
+
+    //ключи остальных типов: обычная хеш-таблица
+    static final class ObjectKeyIndex extends KeyIndex {
+        private final Map<Object, Integer> rows = new HashMap<>();
+
+        @Override
+        int get(Object key) {
+            Integer row = key != null ? rows.get(key) : null;
+            return row != null ? row : ABSENT;
+        }
+
+        @Override
+        int put(Object key, int row) {
+            Integer previous = rows.put(key, row);
+            return previous != null ? previous : ABSENT;
+        }
+
+        @Override
+        int remove(Object key) {
+            Integer previous = key != null ? rows.remove(key) : null;
+            return previous != null ? previous : ABSENT;
+        }
+
+        @Override
+        int size() {
+            return rows.size();
+        }
+
+        @Override
+        <E extends Exception> void forEach(Entry<E> action) throws E {
+            for (Map.Entry<Object, Integer> entry : rows.entrySet()) {
+                action.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+//дерево порядковых статистик для ключей одного сравнимого типа: декартово дерево
+//со случайными приоритетами, в каждом узле хранится размер поддерева, поэтому
+//добавление, удаление, место ключа (rank) и ключ по месту (select) стоят O(log n)
+//ключи не повторяются: дерево ведётся рядом с индексом первичного ключа
+class OrderStatisticTree {
+    private static final class Node {
+        final Object key;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(Object key, int priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+
+    private Node root;
+    private int seed = 0x9E3779B9;
+
+    //дерево из ключей за O(n log n) на сортировку и O(n) на построение: при проходе по возрастанию
+    //правая ветвь держится в стеке, узел с большим приоритетом забирает снятые узлы левым поддеревом
+    static OrderStatisticTree of(Object[] keys) {
+        Arrays.sort(keys);
+        OrderStatisticTree tree = new OrderStatisticTree();
+        Deque<Node> rightSpine = new ArrayDeque<>();
+        for (Object key : keys) {
+            Node node = new Node(key, tree.nextPriority());
+            Node last = null;
+            while (!rightSpine.isEmpty() && rightSpine.peek().priority < node.priority) {
+                last = rightSpine.pop();
+                update(last);
+            }
+            node.left = last;
+            if (!rightSpine.isEmpty()) {
+                rightSpine.peek().right = node;
+            }
+            rightSpine.push(node);
+        }
+        Node last = null;
+        while (!rightSpine.isEmpty()) {
+            last = rightSpine.pop();
+            update(last);
+        }
+        tree.root = last;
+        return tree;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    void add(Object key) {
+        root = insert(root, key);
+    }
+
+    void remove(Object key) {
+        root = remove(root, key);
+    }
+
+    //число ключей меньше key
+    int rank(Object key) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            int order = compare(key, node.key);
+            if (order == 0) {
+                return rank + size(node.left);
+            }
+            if (order < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    //ключ с местом index (с нуля) по возрастанию, null если такого места нет
+    Object select(int index) {
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.key;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    private Node insert(Node node, Object key) {
+        if (node == null) {
+            return new Node(key, nextPriority());
+        }
+        if (compare(key, node.key) < 0) {
+            node.left = insert(node.left, key);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, key);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node remove(Node node, Object key) {
+        if (node == null) {
+            return null;
+        }
+        int order = compare(key, node.key);
+        if (order == 0) {
+            return merge(node.left, node.right);
+        }
+        if (order < 0) {
+            node.left = remove(node.left, key);
+        } else {
+            node.right = remove(node.right, key);
+        }
+        update(node);
+        return node;
+    }
+
+    //все ключи left меньше ключей right
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        update(node);
+        left.right = node;
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        update(node);
+        right.left = node;
+        return right;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object a, Object b) {
+        return ((Comparable) a).compareTo(b);
+    }
+
+    //xorshift: дереву нужны только независимые приоритеты, а не криптостойкость
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+}
\ No newline at end of file
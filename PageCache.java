@@ -0,0 +1,106 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+//кэш страниц файла базы, открытого в страничном режиме
+//страницы читаются из файла в кучу; когда их суммарный размер превышает бюджет,
+//вытесняются давно не использованные (LRU), и память вытесненной страницы сразу становится
+//обычным мусором кучи, сами данные остаются в файле
+class PageCache implements Closeable {
+    private final File file;
+    private FileChannel channel;
+    private final long budget;
+    //столько страниц держится даже сверх бюджета: обход строк читает по странице из каждой колонки,
+    //поэтому это число колонок файла
+    private int minPages = 1;
+    private final LinkedHashMap<Long, PagedColumn.Page> pages = new LinkedHashMap<>(64, 0.75f, true);
+    private long used;
+    private long hits;
+    private long misses;
+
+    interface Loader {
+        PagedColumn.Page load(FileChannel channel) throws IOException;
+    }
+
+    PageCache(File file, FileChannel channel, long budget) {
+        this.file = file;
+        this.channel = channel;
+        this.budget = budget;
+    }
+
+    //открыт ли кэш на этом файле
+    boolean isFile(File other) {
+        return file.getAbsoluteFile().equals(other.getAbsoluteFile());
+    }
+
+    long budget() {
+        return budget;
+    }
+
+    synchronized void setMinPages(int minPages) {
+        this.minPages = Math.max(1, minPages);
+    }
+
+    //страница загружается вне блокировки, чтобы промахи разных потоков не ждали друг друга
+    PagedColumn.Page get(long key, Loader loader) {
+        FileChannel current;
+        synchronized (this) {
+            PagedColumn.Page page = pages.get(key);
+            if (page != null) {
+                hits++;
+                return page;
+            }
+            misses++;
+            current = channel;
+        }
+
+        PagedColumn.Page loaded;
+        try {
+            loaded = loader.load(current);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка чтения страницы: " + e.getMessage(), e);
+        }
+
+        synchronized (this) {
+            PagedColumn.Page page = pages.putIfAbsent(key, loaded);
+            if (page != null) {
+                return page;
+            }
+            used += loaded.bytes;
+            Iterator<PagedColumn.Page> eldest = pages.values().iterator();
+            while (used > budget && pages.size() > minPages) {
+                used -= eldest.next().bytes;
+                eldest.remove();
+            }
+            return loaded;
+        }
+    }
+
+    synchronized long usedBytes() {
+        return used;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        pages.clear();
+        used = 0;
+        channel.close();
+    }
+
+    //снова открывает тот же файл после close(), если его так и не заменили
+    synchronized void reopen() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,348 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+//колонка, значения которой остаются в файле базы и читаются по страницам через PageCache
+//строки файла не меняются: изменённые значения лежат в overrides,
+//добавленные после открытия строки - в обычной колонке added
+//уплотнённая копия читает те же страницы файла через номера строк файла (fileRowMap),
+//а при сериализации колонка пишется по страницам и читается обычной колонкой в куче
+//чтение страниц файла в колонку (readPage, readValues) тоже идёт через overrides и added,
+//страницы файла при этом не меняются
+class PagedColumn extends ColumnData {
+    private static final long serialVersionUID = 1L;
+
+    private static final Object NULL = new Object();
+
+    private enum Kind { INT, DOUBLE, BOOLEAN, STRING, OBJECT }
+
+    private final transient Class<?> type;
+    private final transient Kind kind;
+    private transient PageCache cache;
+    private final transient int column;
+    private transient int[] firstRows;
+    private transient int[] rowCounts;
+    private transient long[] offsets;
+    private transient int fileRows;
+    //номер строки файла для каждой строки колонки из файла, null - номера совпадают
+    private transient int[] fileRowMap;
+    private final transient Map<Integer, Object> overrides = new HashMap<>();
+    private transient ColumnData added;
+    private transient int size;
+
+    //разобранная страница: данные блока файла как есть, разбираются только словарь строк
+    //и значения колонок без примитивного представления
+    static final class Page {
+        final ByteBuffer data;
+        final int nullWords;
+        final int values;
+        final long bytes;
+        final String[] dictionary;
+        final int codes;
+        final Object[] objects;
+
+        Page(ByteBuffer data, int nullWords, int values, long bytes, String[] dictionary, int codes, Object[] objects) {
+            this.data = data;
+            this.nullWords = nullWords;
+            this.values = values;
+            this.bytes = bytes;
+            this.dictionary = dictionary;
+            this.codes = codes;
+            this.objects = objects;
+        }
+
+        boolean isNull(int index) {
+            int word = index >>> 6;
+            return word < nullWords
+                    && (data.getLong(FdbFormat.PAGE_HEADER_SIZE + Integer.BYTES + word * Long.BYTES) >>> (index & 63) & 1) != 0;
+        }
+    }
+
+    PagedColumn(Class<?> type, PageCache cache, int column, List<FdbFormat.BlockEntry> pages, int fileRows) {
+        this.type = type;
+        this.kind = kindOf(forType(type));
+        this.column = column;
+        attach(cache, pages, fileRows);
+    }
+
+    //колонка на тех же страницах файла, строк в ней пока нет
+    private PagedColumn(PagedColumn source) {
+        this.type = source.type;
+        this.kind = source.kind;
+        this.column = source.column;
+        this.cache = source.cache;
+        this.firstRows = source.firstRows;
+        this.rowCounts = source.rowCounts;
+        this.offsets = source.offsets;
+        this.added = forType(type);
+    }
+
+    //колонка читает страницы другого файла, в котором уже записаны все её строки с изменениями:
+    //так после контрольной точки колонка переходит на новый файл базы
+    void attach(PageCache cache, List<FdbFormat.BlockEntry> pages, int fileRows) {
+        this.cache = cache;
+        this.fileRows = fileRows;
+        this.size = fileRows;
+        this.fileRowMap = null;
+        this.added = forType(type);
+        overrides.clear();
+
+        List<FdbFormat.BlockEntry> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(entry -> entry.firstRow));
+        firstRows = new int[sorted.size()];
+        rowCounts = new int[sorted.size()];
+        offsets = new long[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            firstRows[i] = sorted.get(i).firstRow;
+            rowCounts[i] = sorted.get(i).rowCount;
+            offsets[i] = sorted.get(i).offset;
+        }
+    }
+
+    private static Kind kindOf(ColumnData column) {
+        if (column instanceof IntColumn) return Kind.INT;
+        if (column instanceof DoubleColumn) return Kind.DOUBLE;
+        if (column instanceof BooleanColumn) return Kind.BOOLEAN;
+        if (column instanceof StringColumn) return Kind.STRING;
+        return Kind.OBJECT;
+    }
+
+    @Override
+    boolean isNull(int row) {
+        return get(row) == null;
+    }
+
+    @Override
+    Object get(int row) {
+        if (row >= fileRows) {
+            return added.get(row - fileRows);
+        }
+        Object override = overrides.get(row);
+        if (override != null) {
+            return override == NULL ? null : override;
+        }
+
+        int fileRow = fileRowMap != null ? fileRowMap[row] : row;
+        int page = Arrays.binarySearch(firstRows, fileRow);
+        if (page < 0) page = -page - 2;
+        if (page < 0 || fileRow >= firstRows[page] + rowCounts[page]) {
+            return null;
+        }
+        return value(page(page), fileRow - firstRows[page]);
+    }
+
+    @Override
+    void set(int row, Object value) {
+        size = Math.max(size, row + 1);
+        if (row >= fileRows) {
+            added.set(row - fileRows, value);
+        } else {
+            overrides.put(row, value == null ? NULL : value);
+        }
+    }
+
+    @Override
+    Object normalize(Object value) {
+        return added.normalize(value);
+    }
+
+    //копия не читает страниц: строки из файла, идущие первыми, запоминаются номерами строк файла
+    //вместе с их изменениями, в кучу копируются только значения остальных строк
+    @Override
+    ColumnData copyRows(int[] rows, int count) {
+        PagedColumn copy = new PagedColumn(this);
+        int mapped = 0;
+        while (mapped < count && rows[mapped] < fileRows) {
+            mapped++;
+        }
+        copy.fileRowMap = new int[mapped];
+        for (int i = 0; i < mapped; i++) {
+            copy.fileRowMap[i] = fileRowMap != null ? fileRowMap[rows[i]] : rows[i];
+            Object override = overrides.get(rows[i]);
+            if (override != null) {
+                copy.overrides.put(i, override);
+            }
+        }
+        copy.fileRows = mapped;
+        for (int i = mapped; i < count; i++) {
+            copy.added.set(i - mapped, get(rows[i]));
+        }
+        copy.size = count;
+        return copy;
+    }
+
+    //страница записывается из значений с учётом изменений
+    @Override
+    void writePage(DataOutput out, int from, int count) throws IOException {
+        copyRange(from, count).writePage(out, 0, count);
+    }
+
+    private ColumnData copyRange(int from, int count) {
+        ColumnData copy = forType(type);
+        copy.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            copy.set(i, get(from + i));
+        }
+        return copy;
+    }
+
+    //страница разбирается обычной колонкой того же типа, её значения записываются как изменения
+    @Override
+    void readPage(ByteBuffer in, int from, int count) throws IOException {
+        ColumnData page = forType(type);
+        page.readPage(in, 0, count);
+        for (int i = 0; i < count; i++) {
+            set(from + i, page.get(i));
+        }
+    }
+
+    @Override
+    protected void writeValues(DataOutput out, int from, int count) throws IOException {
+        copyRange(from, count).writeValues(out, 0, count);
+    }
+
+    //null уже прочитаны: такие строки остаются null, как и у обычной колонки
+    @Override
+    protected void readValues(ByteBuffer in, int from, int count) throws IOException {
+        ColumnData page = forType(type);
+        page.ensureCapacity(count);
+        page.readValues(in, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (!isNull(from + i)) {
+                set(from + i, page.getValue(i));
+            }
+        }
+    }
+
+    @Override
+    protected Object getValue(int row) {
+        return get(row);
+    }
+
+    @Override
+    protected void setValue(int row, Object value) {
+        set(row, value);
+    }
+
+    @Override
+    protected void clearValue(int row) {
+        set(row, null);
+    }
+
+    @Override
+    protected void ensureCapacity(int rows) {
+        if (rows > fileRows) {
+            added.ensureCapacity(rows - fileRows);
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    //сериализованная колонка: тип, число строк и страницы по FdbFormat.PAGE_ROWS строк
+    //в кодировке writePage, так что при записи в куче оказывается одна страница за раз;
+    //читается обычной колонкой этого типа
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private transient PagedColumn source;
+        private transient ColumnData column;
+
+        SerializedForm(PagedColumn source) {
+            this.source = source;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeObject(source.type);
+            out.writeInt(source.size);
+            ByteArrayOutputStream page = new ByteArrayOutputStream();
+            for (int from = 0; from < source.size; from += FdbFormat.PAGE_ROWS) {
+                page.reset();
+                source.writePage(new DataOutputStream(page), from, Math.min(FdbFormat.PAGE_ROWS, source.size - from));
+                out.writeInt(page.size());
+                page.writeTo(out);
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            Class<?> type = (Class<?>) in.readObject();
+            int size = in.readInt();
+            column = forType(type);
+            for (int from = 0; from < size; from += FdbFormat.PAGE_ROWS) {
+                byte[] page = new byte[in.readInt()];
+                in.readFully(page);
+                column.readPage(ByteBuffer.wrap(page), from, Math.min(FdbFormat.PAGE_ROWS, size - from));
+            }
+        }
+
+        private Object readResolve() {
+            return column;
+        }
+    }
+
+    private Page page(int page) {
+        return cache.get(((long) column << 32) | page, channel -> load(channel, page));
+    }
+
+    private Page load(FileChannel channel, int page) throws IOException {
+        ByteBuffer data = FdbFormat.readBlock(channel, offsets[page], FdbFormat.PAGE);
+        int count = rowCounts[page];
+        int nullWords = data.getInt(FdbFormat.PAGE_HEADER_SIZE);
+        int values = FdbFormat.PAGE_HEADER_SIZE + Integer.BYTES + nullWords * Long.BYTES;
+        long bytes = data.limit();
+
+        if (kind == Kind.STRING) {
+            ByteBuffer in = data.duplicate().position(values);
+            String[] dictionary = new String[in.getInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+                bytes += 40 + 2L * dictionary[i].length();
+            }
+            return new Page(data, nullWords, values, bytes, dictionary, in.position(), null);
+        }
+
+        if (kind == Kind.OBJECT) {
+            Page header = new Page(data, nullWords, values, bytes, null, 0, null);
+            ByteBuffer in = data.duplicate().position(values);
+            Object[] objects = new Object[count];
+            for (int i = 0; i < count; i++) {
+                if (header.isNull(i)) continue;
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    objects[i] = ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Неизвестный тип значения: " + e.getMessage(), e);
+                }
+            }
+            return new Page(data, nullWords, values, bytes + 32L * count, null, 0, objects);
+        }
+
+        return new Page(data, nullWords, values, bytes, null, 0, null);
+    }
+
+    private Object value(Page page, int index) {
+        if (page.isNull(index)) {
+            return null;
+        }
+        ByteBuffer data = page.data;
+        switch (kind) {
+            case INT:
+                return data.getInt(page.values + index * Integer.BYTES);
+            case DOUBLE:
+                return data.getDouble(page.values + index * Double.BYTES);
+            case BOOLEAN: {
+                int word = index >>> 6;
+                return word < data.getInt(page.values)
+                        && (data.getLong(page.values + Integer.BYTES + word * Long.BYTES) >>> (index & 63) & 1) != 0;
+            }
+            case STRING:
+                return page.dictionary[data.getInt(page.codes + index * Integer.BYTES)];
+            default:
+                return page.objects[index];
+        }
+    }
+}
\ No newline at end of file
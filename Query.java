@@ -0,0 +1,185 @@
+import java.util.*;
+
+//запрос к базе: условие отбора, возвращаемые поля и ограничение количества записей
+//условия собираются фабричными методами: Query.where(and(eq("city", "Москва"), range("age", 30, 40, true)))
+public class Query {
+    private final Predicate where;
+    private List<String> fields;
+    private int limit = -1;
+    private int offset;
+    private int after = -1;
+    private int afterNumbering;
+
+    private Query(Predicate where) {
+        this.where = where;
+    }
+
+    public static Query where(Predicate where) {
+        return new Query(where);
+    }
+
+    public static Query all() {
+        return new Query(null);
+    }
+
+    //проекция: в результат попадут только перечисленные поля
+    public Query select(String... fields) {
+        this.fields = List.of(fields);
+        return this;
+    }
+
+    public Query limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    //пропустить первые offset подходящих записей
+    public Query offset(int offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    //продолжить после последней записи, выданной курсором: в отличие от offset не перебирает
+    //заново уже показанные записи; null - с начала
+    //позиция - номер строки хранилища, после уплотнения она устаревает и курсор по такому запросу
+    //не откроется (ConcurrentModificationException)
+    public Query after(RecordCursor cursor) {
+        this.after = cursor != null ? cursor.getLastRow() : -1;
+        this.afterNumbering = cursor != null ? cursor.getNumbering() : 0;
+        return this;
+    }
+
+    public Predicate getWhere() { return where; }
+    public List<String> getFields() { return fields; }
+    public int getLimit() { return limit; }
+    public int getOffset() { return offset; }
+    public int getAfter() { return after; }
+    int getAfterNumbering() { return afterNumbering; }
+
+    public static Predicate eq(String field, Object value) {
+        return new Equals(field, value);
+    }
+
+    //подстрока без учёта регистра
+    public static Predicate contains(String field, String text) {
+        return new Contains(field, text);
+    }
+
+    //null в границе - без ограничения с этой стороны
+    public static Predicate range(String field, Object from, Object to, boolean inclusive) {
+        return new Range(field, from, to, inclusive);
+    }
+
+    public static Predicate and(Predicate... predicates) {
+        return new And(List.of(predicates));
+    }
+
+    public static Predicate or(Predicate... predicates) {
+        return new Or(List.of(predicates));
+    }
+
+    public static Predicate not(Predicate predicate) {
+        return new Not(predicate);
+    }
+
+    public abstract static class Predicate {
+        Predicate() {
+        }
+    }
+
+    private static String join(List<Predicate> predicates, String separator) {
+        StringJoiner joiner = new StringJoiner(separator, "(", ")");
+        for (Predicate predicate : predicates) {
+            joiner.add(String.valueOf(predicate));
+        }
+        return joiner.toString();
+    }
+
+    static final class Equals extends Predicate {
+        final String field;
+        final Object value;
+
+        Equals(String field, Object value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return field + " = " + value;
+        }
+    }
+
+    static final class Contains extends Predicate {
+        final String field;
+        final String text;
+
+        Contains(String field, String text) {
+            this.field = field;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return field + " содержит '" + text + "'";
+        }
+    }
+
+    static final class Range extends Predicate {
+        final String field;
+        final Object from;
+        final Object to;
+        final boolean inclusive;
+
+        Range(String field, Object from, Object to, boolean inclusive) {
+            this.field = field;
+            this.from = from;
+            this.to = to;
+            this.inclusive = inclusive;
+        }
+
+        @Override
+        public String toString() {
+            return field + (inclusive ? " в [" : " в (") + from + ", " + to + (inclusive ? "]" : ")");
+        }
+    }
+
+    static final class And extends Predicate {
+        final List<Predicate> predicates;
+
+        And(List<Predicate> predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        public String toString() {
+            return join(predicates, " И ");
+        }
+    }
+
+    static final class Or extends Predicate {
+        final List<Predicate> predicates;
+
+        Or(List<Predicate> predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        public String toString() {
+            return join(predicates, " ИЛИ ");
+        }
+    }
+
+    static final class Not extends Predicate {
+        final Predicate predicate;
+
+        Not(Predicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public String toString() {
+            return "НЕ " + predicate;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,191 @@
+import java.util.*;
+
+//планировщик запросов: оценивает условия по размерам списков в индексах,
+//начинает с самого избирательного и дальше либо пересекает битовые карты,
+//либо, если кандидатов уже меньше, проверяет оставшиеся условия по самим строкам
+class QueryPlanner {
+    private final Database database;
+    //значения условий равенства, приведённые к типу колонки, чтобы не приводить их для каждой строки
+    private final Map<Query.Equals, Object> equalityKeys = new IdentityHashMap<>();
+
+    QueryPlanner(Database database) {
+        this.database = database;
+    }
+
+    //кандидаты, найденные по индексам, и условия, которые надо проверить по каждой строке
+    //candidates == null - кандидаты все живые строки, карта по ним не строится
+    static class Plan {
+        final RoaringBitmap candidates;
+        final List<Query.Predicate> residual;
+
+        Plan(RoaringBitmap candidates, List<Query.Predicate> residual) {
+            this.candidates = candidates;
+            this.residual = residual;
+        }
+    }
+
+    Plan plan(Query.Predicate predicate) {
+        if (predicate == null) {
+            return new Plan(null, List.of());
+        }
+        //подстроку проверяем по строкам лениво, индекс триграмм даёт только кандидатов
+        if (predicate instanceof Query.Contains contains) {
+            return new Plan(database.findContainsCandidates(contains.field, contains.text), List.of(predicate));
+        }
+        if (!(predicate instanceof Query.And and)) {
+            return new Plan(evaluate(predicate), List.of());
+        }
+
+        List<Query.Predicate> ordered = new ArrayList<>(and.predicates);
+        if (ordered.isEmpty()) {
+            return new Plan(null, List.of());
+        }
+        Map<Query.Predicate, Integer> estimates = new IdentityHashMap<>();
+        for (Query.Predicate child : ordered) {
+            estimates.put(child, estimate(child));
+        }
+        ordered.sort(Comparator.comparing(estimates::get));
+
+        Plan first = plan(ordered.get(0));
+        RoaringBitmap candidates = candidates(first);
+        List<Query.Predicate> residual = new ArrayList<>(first.residual);
+        for (int i = 1; i < ordered.size(); i++) {
+            Query.Predicate child = ordered.get(i);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            if (estimates.get(child) < candidates.getCardinality()) {
+                Plan next = plan(child);
+                candidates.and(candidates(next));
+                residual.addAll(next.residual);
+            } else {
+                residual.add(child);
+            }
+        }
+        return new Plan(candidates, residual);
+    }
+
+    //карта кандидатов плана, для плана без кандидатов - все живые строки
+    RoaringBitmap candidates(Plan plan) {
+        return plan.candidates != null ? plan.candidates : database.liveRows();
+    }
+
+    boolean matches(Plan plan, int row) {
+        for (Query.Predicate predicate : plan.residual) {
+            if (!test(predicate, row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //оценка числа подходящих строк
+    int estimate(Query.Predicate predicate) {
+        if (predicate instanceof Query.Equals equals) {
+            return database.estimateEquals(equals.field, equals.value);
+        }
+        if (predicate instanceof Query.Contains contains) {
+            return database.estimateContains(contains.field, contains.text);
+        }
+        if (predicate instanceof Query.Range range) {
+            return database.estimateRange(range.field, range.from, range.to, range.inclusive);
+        }
+        if (predicate instanceof Query.And and) {
+            int estimate = database.getRecordCount();
+            for (Query.Predicate child : and.predicates) {
+                estimate = Math.min(estimate, estimate(child));
+            }
+            return estimate;
+        }
+        if (predicate instanceof Query.Or or) {
+            long estimate = 0;
+            for (Query.Predicate child : or.predicates) {
+                estimate += estimate(child);
+            }
+            return (int) Math.min(estimate, database.getRecordCount());
+        }
+        if (predicate instanceof Query.Not not) {
+            return Math.max(0, database.getRecordCount() - estimate(not.predicate));
+        }
+        throw new IllegalArgumentException("Неизвестное условие: " + predicate);
+    }
+
+    //точное множество строк, подходящих под условие
+    RoaringBitmap evaluate(Query.Predicate predicate) {
+        if (predicate instanceof Query.Equals equals) {
+            return database.findEquals(equals.field, equals.value);
+        }
+        if (predicate instanceof Query.Contains contains) {
+            return database.findContains(contains.field, contains.text);
+        }
+        if (predicate instanceof Query.Range range) {
+            return database.findRange(range.field, range.from, range.to, range.inclusive);
+        }
+        if (predicate instanceof Query.And) {
+            Plan plan = plan(predicate);
+            RoaringBitmap candidates = candidates(plan);
+            if (plan.residual.isEmpty()) {
+                return candidates;
+            }
+            RoaringBitmap result = new RoaringBitmap();
+            candidates.forEachValue(row -> {
+                if (matches(plan, row)) {
+                    result.add(row);
+                }
+            });
+            return result;
+        }
+        if (predicate instanceof Query.Or or) {
+            RoaringBitmap result = new RoaringBitmap();
+            for (Query.Predicate child : or.predicates) {
+                result.or(evaluate(child));
+            }
+            return result;
+        }
+        if (predicate instanceof Query.Not not) {
+            RoaringBitmap result = database.liveRows();
+            result.andNot(evaluate(not.predicate));
+            return result;
+        }
+        throw new IllegalArgumentException("Неизвестное условие: " + predicate);
+    }
+
+    //проверка условия по значениям одной строки
+    boolean test(Query.Predicate predicate, int row) {
+        if (predicate instanceof Query.Equals equals) {
+            Object key = equalityKey(equals);
+            return key != null && key.equals(database.getValue(row, equals.field));
+        }
+        if (predicate instanceof Query.Contains contains) {
+            Object value = database.getValue(row, contains.field);
+            return value instanceof String && ((String) value).toLowerCase().contains(contains.text.toLowerCase());
+        }
+        if (predicate instanceof Query.Range range) {
+            return database.rangeContains(row, range.field, range.from, range.to, range.inclusive);
+        }
+        if (predicate instanceof Query.And and) {
+            for (Query.Predicate child : and.predicates) {
+                if (!test(child, row)) return false;
+            }
+            return true;
+        }
+        if (predicate instanceof Query.Or or) {
+            for (Query.Predicate child : or.predicates) {
+                if (test(child, row)) return true;
+            }
+            return false;
+        }
+        if (predicate instanceof Query.Not not) {
+            return !test(not.predicate, row);
+        }
+        throw new IllegalArgumentException("Неизвестное условие: " + predicate);
+    }
+
+    //null - условие не подходит ни одной строке, такой null тоже запоминается
+    private Object equalityKey(Query.Equals equals) {
+        if (!equalityKeys.containsKey(equals)) {
+            equalityKeys.put(equals, database.equalityKey(equals.field, equals.value));
+        }
+        return equalityKeys.get(equals);
+    }
+}
\ No newline at end of file
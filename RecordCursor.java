@@ -0,0 +1,114 @@
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//курсор по результату запроса: строки проверяются и отдаются по мере чтения,
+//поэтому первые 100 совпадений стоят O(100), а не O(всех совпадений)
+//для постраничного вывода следующий курсор открывается через Query.after(курсор)
+//номера строк меняются при уплотнении хранилища, поэтому курсор помнит нумерацию, при которой
+//открыт, и после уплотнения чтение из него бросает ConcurrentModificationException
+public class RecordCursor implements Iterator<Map<String, Object>> {
+    private final Database database;
+    private final QueryPlanner planner;
+    private final QueryPlanner.Plan plan;
+    private final int[] projection;
+    private final int numbering;
+    private int remaining;
+    private int next;
+    private int lastRow = -1;
+
+    RecordCursor(Database database, Query query, int[] projection) {
+        this.database = database;
+        this.planner = new QueryPlanner(database);
+        this.plan = planner.plan(query.getWhere());
+        this.projection = projection;
+        this.numbering = database.getRowNumbering();
+        if (query.getAfter() >= 0 && query.getAfterNumbering() != numbering) {
+            throw stale();
+        }
+        this.remaining = query.getLimit() >= 0 ? query.getLimit() : Integer.MAX_VALUE;
+        this.next = advance(query.getAfter() + 1);
+        for (int skipped = 0; skipped < query.getOffset() && next >= 0; skipped++) {
+            next = advance(next + 1);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next >= 0 && remaining > 0;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        int row = nextRow();
+        //между поиском строки и созданием представления хранилище могло смениться уплотнением
+        return database.read(() -> {
+            if (database.getRowNumbering() != numbering) {
+                throw stale();
+            }
+            return database.rowView(row, projection);
+        });
+    }
+
+    //номер следующей подходящей строки
+    int nextRow() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        lastRow = next;
+        remaining--;
+        next = remaining > 0 ? advance(lastRow + 1) : -1;
+        return lastRow;
+    }
+
+    //следующие size записей или меньше, если результат закончился
+    public List<Map<String, Object>> nextPage(int size) {
+        List<Map<String, Object>> page = new ArrayList<>(Math.min(size, 1024));
+        while (page.size() < size && hasNext()) {
+            page.add(next());
+        }
+        return page;
+    }
+
+    //номер последней выданной строки, -1 если ещё ничего не прочитано
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    //нумерация строк хранилища, к которой относится getLastRow()
+    int getNumbering() {
+        return numbering;
+    }
+
+    public Stream<Map<String, Object>> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    //строки, удалённые после открытия курсора, пропускаются
+    //поиск следующей строки идёт под блокировкой чтения базы, между вызовами она не держится
+    private int advance(int from) {
+        if (from < 0) return -1;
+        return database.read(() -> {
+            if (database.getRowNumbering() != numbering) {
+                throw stale();
+            }
+            for (int row = nextCandidate(from); row >= 0; row = nextCandidate(row + 1)) {
+                if (database.isLive(row) && planner.matches(plan, row)) {
+                    return row;
+                }
+                if (row == Integer.MAX_VALUE) break;
+            }
+            return -1;
+        });
+    }
+
+    //без кандидатов из индексов перебираются живые строки подряд, без битовой карты по всей базе
+    private int nextCandidate(int from) {
+        return plan.candidates != null ? plan.candidates.nextValue(from) : database.nextLive(from);
+    }
+
+    private static ConcurrentModificationException stale() {
+        return new ConcurrentModificationException("Строки базы перенумерованы уплотнением, курсор устарел");
+    }
+}
\ No newline at end of file
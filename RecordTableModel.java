@@ -0,0 +1,186 @@
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+//модель таблицы без копии данных: строки - представления записей базы, значения ячеек
+//читаются при отрисовке и только для видимых строк, поэтому таблица любого размера
+//показывается сразу и не занимает памяти сверх самой базы
+//число строк меняется только уведомлениями: пока фоновая операция меняет базу,
+//JTable видит прежний размер, а лишние строки читаются как пустые
+class RecordTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    //удаление стольких строк и больше проще показать перечитыванием таблицы
+    private static final int MAX_DELETE_EVENTS = 1000;
+
+    private final List<String> columnNames;
+    private final List<Map<String, Object>> records;
+    private int rowCount;
+    private Follower follower;
+    //база, из которой берётся виртуальная колонка "№", или null, если её нет
+    private Database ordinals;
+
+    //изменения базы приходят в потоке, который её меняет: места строк в таблице считаются сразу,
+    //пока номера строк действительны, а сама таблица меняется в потоке интерфейса
+    private final class Follower implements Database.ChangeListener {
+        private final Database followed;
+
+        Follower(Database followed) {
+            this.followed = followed;
+        }
+
+        @Override
+        public void rowsInserted(int fromRow, int toRow) {
+            int first = followed.ordinalOf(fromRow);
+            int count = followed.ordinalOf(toRow) - first;
+            if (count > 0) {
+                boolean shifted = followed.hasOrdinals()
+                        && followed.shiftsOrdinals(IntStream.range(fromRow, toRow).iterator(), true);
+                SwingUtilities.invokeLater(() -> {
+                    rowCount += count;
+                    fireTableRowsInserted(first, first + count - 1);
+                    ordinalsChanged(shifted);
+                });
+            }
+        }
+
+        @Override
+        public void rowUpdated(int row) {
+            int index = followed.ordinalOf(row);
+            SwingUtilities.invokeLater(() -> fireTableRowsUpdated(index, index));
+        }
+
+        @Override
+        public void rowsDeleted(int[] rows) {
+            if (rows.length >= MAX_DELETE_EVENTS) {
+                reloaded();
+                return;
+            }
+            //удалённые строки уже не считаются, поэтому у подряд идущих место одно и то же:
+            //это один диапазон в таблице, из которой предыдущие диапазоны уже убраны
+            List<int[]> ranges = new ArrayList<>();
+            for (int row : rows) {
+                int index = followed.ordinalOf(row);
+                int[] last = ranges.isEmpty() ? null : ranges.getLast();
+                if (last != null && last[0] == index) {
+                    last[1]++;
+                } else {
+                    ranges.add(new int[]{index, 1});
+                }
+            }
+            boolean shifted = followed.hasOrdinals()
+                    && followed.shiftsOrdinals(Arrays.stream(rows).iterator(), false);
+            SwingUtilities.invokeLater(() -> {
+                for (int[] range : ranges) {
+                    rowCount -= range[1];
+                    fireTableRowsDeleted(range[0], range[0] + range[1] - 1);
+                }
+                ordinalsChanged(shifted);
+            });
+        }
+
+        //число записей берётся на момент изменения: следующие изменения придут своими уведомлениями
+        @Override
+        public void reloaded() {
+            int count = followed.getRecordCount();
+            SwingUtilities.invokeLater(() -> {
+                rowCount = count;
+                fireTableDataChanged();
+            });
+        }
+    }
+
+    RecordTableModel(List<String> columnNames, List<Map<String, Object>> records) {
+        this.columnNames = columnNames;
+        this.records = records;
+        this.rowCount = records.size();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.size() + (ordinals != null ? 1 : 0);
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        if (ordinals != null) {
+            return column == 0 ? "№" : columnNames.get(column - 1);
+        }
+        return columnNames.get(column);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        //запись берётся одним обращением: между проверкой размера и чтением фоновая операция
+        //могла бы удалить строки, поэтому отсутствующая запись просто читается как пустая
+        Map<String, Object> record;
+        try {
+            record = records.get(row);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        if (ordinals != null) {
+            if (column == 0) {
+                int ordinal = ordinals.getOrdinal(record.get(ordinals.getPrimaryKey()));
+                return ordinal > 0 ? ordinal : null;
+            }
+            column--;
+        }
+        return record.get(columnNames.get(column));
+    }
+
+    //первой колонкой показывается "№": плотный порядковый номер записи по первичному ключу,
+    //который база считает сама, не меняя ключей (Database.getOrdinal)
+    void showOrdinals(Database database) {
+        ordinals = database;
+        fireTableStructureChanged();
+    }
+
+    //после добавления или удаления номера других записей могут сдвинуться; места этих записей
+    //в таблице не связаны с ключами, поэтому перерисовывается только колонка "№" и только если
+    //сдвиг был: новые ключи больше прежних (обычный случай) номеров не трогают
+    private void ordinalsChanged(boolean shifted) {
+        if (ordinals != null && shifted && rowCount > 0) {
+            fireTableChanged(new TableModelEvent(this, 0, rowCount - 1, 0));
+        }
+    }
+
+    //таблица следит за изменениями database, records должен быть её getRecords()
+    void follow(Database database) {
+        unfollow();
+        follower = new Follower(database);
+        database.addChangeListener(follower);
+    }
+
+    void unfollow() {
+        if (follower != null) {
+            follower.followed.removeChangeListener(follower);
+            follower = null;
+        }
+    }
+
+    //в конец списка добавлены записи
+    void rowsAppended() {
+        int first = rowCount;
+        rowCount = records.size();
+        if (rowCount > first) {
+            fireTableRowsInserted(first, rowCount - 1);
+        }
+    }
+
+    //список записей заменён целиком: таблица перечитывается
+    void rowsReplaced() {
+        rowCount = records.size();
+        fireTableDataChanged();
+    }
+}
\ No newline at end of file
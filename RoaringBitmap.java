@@ -0,0 +1,708 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+//сжатое множество номеров строк в духе Roaring: старшие 16 бит номера выбирают контейнер,
+//младшие хранятся в отсортированном массиве (до 4096 значений) или в битовой карте на 65536 бит
+class RoaringBitmap implements Iterable<Integer> {
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[1];
+    private Container[] containers = new Container[1];
+    private int size;
+
+    public RoaringBitmap() {
+    }
+
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    //все номера в полуинтервале [from, to)
+    public static RoaringBitmap range(int from, int to) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value = from; value < to; ) {
+            int key = value >>> 16;
+            int end = Math.min(to, (key + 1) << 16);
+            int low = value & 0xFFFF;
+            int high = end - (key << 16);
+            Container container = high - low > ARRAY_MAX_SIZE ? new BitmapContainer() : new ArrayContainer();
+            for (int i = low; i < high; i++) {
+                container = container.add((char) i);
+            }
+            bitmap.append((char) key, container);
+            value = end;
+        }
+        return bitmap;
+    }
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int position = findKey(key);
+        if (position >= 0) {
+            containers[position] = containers[position].add((char) value);
+        } else {
+            insert(-position - 1, key, new ArrayContainer().add((char) value));
+        }
+    }
+
+    public void remove(int value) {
+        int position = findKey((char) (value >>> 16));
+        if (position < 0) return;
+
+        Container container = containers[position].remove((char) value);
+        if (container.cardinality() == 0) {
+            removeAt(position);
+        } else {
+            containers[position] = container;
+        }
+    }
+
+    public boolean contains(int value) {
+        int position = findKey((char) (value >>> 16));
+        return position >= 0 && containers[position].contains((char) value);
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    //наименьшее значение >= from или -1
+    public int nextValue(int from) {
+        if (from < 0) from = 0;
+        char key = (char) (from >>> 16);
+        int position = findKey(key);
+        if (position >= 0) {
+            int next = containers[position].nextValue((char) from);
+            if (next >= 0) {
+                return (key << 16) | next;
+            }
+            position++;
+        } else {
+            position = -position - 1;
+        }
+        if (position < size) {
+            return (keys[position] << 16) | containers[position].nextValue((char) 0);
+        }
+        return -1;
+    }
+
+    public RoaringBitmap copy() {
+        RoaringBitmap copy = new RoaringBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(size, 4));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container container = a.containers[i].and(b.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(a.keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i >= a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            Container container = j < b.size && b.keys[j] == a.keys[i]
+                    ? a.containers[i].andNot(b.containers[j])
+                    : a.containers[i].copy();
+            if (container.cardinality() > 0) {
+                result.append(a.keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    //объединение на месте, удобно для накопления результата: совпадающие контейнеры
+    //дополняются без копирования, недостающие копируются из other
+    public void or(RoaringBitmap other) {
+        int i = 0;
+        for (int j = 0; j < other.size; j++) {
+            char key = other.keys[j];
+            while (i < size && keys[i] < key) {
+                i++;
+            }
+            if (i < size && keys[i] == key) {
+                containers[i] = containers[i].orInPlace(other.containers[j]);
+            } else {
+                insert(i, key, other.containers[j].copy());
+            }
+            i++;
+        }
+    }
+
+    public void and(RoaringBitmap other) {
+        RoaringBitmap result = and(this, other);
+        keys = result.keys;
+        containers = result.containers;
+        size = result.size;
+    }
+
+    public void andNot(RoaringBitmap other) {
+        RoaringBitmap result = andNot(this, other);
+        keys = result.keys;
+        containers = result.containers;
+        size = result.size;
+    }
+
+    public void forEachValue(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toArray() {
+        int[] values = new int[getCardinality()];
+        int[] count = new int[1];
+        forEachValue(value -> values[count[0]++] = value);
+        return values;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = nextValue(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) throw new NoSuchElementException();
+                int current = next;
+                next = current == Integer.MAX_VALUE ? -1 : nextValue(current + 1);
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RoaringBitmap other) || other.size != size) return false;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !containers[i].sameValues(other.containers[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {1};
+        forEachValue(value -> hash[0] = 31 * hash[0] + value);
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "{", "}");
+        forEachValue(value -> joiner.add(String.valueOf(value)));
+        return joiner.toString();
+    }
+
+    //запись для файла базы: число контейнеров, затем ключ, вид и содержимое каждого
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            containers[i].write(out);
+        }
+    }
+
+    static RoaringBitmap read(DataInput in) throws IOException {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            char key = in.readChar();
+            bitmap.append(key, in.readBoolean() ? BitmapContainer.read(in) : ArrayContainer.read(in));
+        }
+        return bitmap;
+    }
+
+    private int findKey(char key) {
+        //последний контейнер проверяем отдельно: новые строки почти всегда дописываются в конец
+        if (size > 0 && keys[size - 1] == key) return size - 1;
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void append(char key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int position, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(containers, position, containers, position + 1, size - position);
+        keys[position] = key;
+        containers[position] = container;
+        size++;
+    }
+
+    private void removeAt(int position) {
+        System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+        System.arraycopy(containers, position + 1, containers, position, size - position - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        //наименьшее значение >= from или -1
+        abstract int nextValue(char from);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        //объединение, которому разрешено изменить этот контейнер
+        Container orInPlace(Container other) {
+            return or(other);
+        }
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int high, IntConsumer consumer);
+
+        //первым пишется признак плотного контейнера
+        abstract void write(DataOutput out) throws IOException;
+
+        boolean sameValues(Container other) {
+            if (cardinality() != other.cardinality()) return false;
+            for (int value = nextValue((char) 0); value >= 0; value = value == 0xFFFF ? -1 : nextValue((char) (value + 1))) {
+                if (!other.contains((char) value)) return false;
+            }
+            return true;
+        }
+    }
+
+    //разреженный контейнер: отсортированный массив младших 16 бит
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[1], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int position = cardinality > 0 && values[cardinality - 1] < value
+                    ? -cardinality - 1
+                    : Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) return this;
+
+            if (cardinality >= ARRAY_MAX_SIZE) {
+                return toBitmap().add(value);
+            }
+            position = -position - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.max(4, Math.min(ARRAY_MAX_SIZE, cardinality * 2)));
+            }
+            System.arraycopy(values, position, values, position + 1, cardinality - position);
+            values[position] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) {
+                System.arraycopy(values, position + 1, values, position, cardinality - position - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(char from) {
+            int position = Arrays.binarySearch(values, 0, cardinality, from);
+            if (position < 0) position = -position - 1;
+            return position < cardinality ? values[position] : -1;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.cardinality())];
+            int count = 0;
+            if (other instanceof ArrayContainer array) {
+                int i = 0, j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_MAX_SIZE) {
+                BitmapContainer bitmap = toBitmap();
+                for (int j = 0; j < array.cardinality; j++) {
+                    bitmap.set(array.values[j]);
+                }
+                return bitmap.cardinality <= ARRAY_MAX_SIZE ? bitmap.toArray() : bitmap;
+            }
+            char[] result = new char[cardinality + array.cardinality];
+            int count = 0, i = 0, j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j >= array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i >= cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    result[count++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            out.writeBoolean(false);
+            out.writeShort(cardinality - 1);
+            for (int i = 0; i < cardinality; i++) {
+                out.writeChar(values[i]);
+            }
+        }
+
+        static ArrayContainer read(DataInput in) throws IOException {
+            int cardinality = in.readUnsignedShort() + 1;
+            char[] values = new char[Math.max(cardinality, 4)];
+            for (int i = 0; i < cardinality; i++) {
+                values[i] = in.readChar();
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    //плотный контейнер: 65536 бит, операции над ним идут по 64-битным словам
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[BITMAP_WORDS], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        void set(char value) {
+            long mask = 1L << value;
+            int word = value >>> 6;
+            if ((words[word] & mask) == 0) {
+                words[word] |= mask;
+                cardinality++;
+            }
+        }
+
+        @Override
+        Container orInPlace(Container other) {
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) {
+                    set(array.values[i]);
+                }
+                return this;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= otherWords[i];
+                count += Long.bitCount(words[i]);
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long mask = 1L << value;
+            int word = value >>> 6;
+            if ((words[word] & mask) != 0) {
+                words[word] &= ~mask;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX_SIZE) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(char from) {
+            int word = from >>> 6;
+            long bits = words[word] & (-1L << from);
+            while (true) {
+                if (bits != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word == BITMAP_WORDS) {
+                    return -1;
+                }
+                bits = words[word];
+            }
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, count);
+            return count <= ARRAY_MAX_SIZE ? bitmap.toArray() : bitmap;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.set(array.values[i]);
+                }
+                return result;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] |= otherWords[i];
+                count += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = count;
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] result = words.clone();
+            int count = 0;
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) {
+                    char value = array.values[i];
+                    result[value >>> 6] &= ~(1L << value);
+                }
+            } else {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result[i] &= ~otherWords[i];
+                }
+            }
+            for (long word : result) {
+                count += Long.bitCount(word);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, count);
+            return count <= ARRAY_MAX_SIZE ? bitmap.toArray() : bitmap;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long bits = words[i];
+                while (bits != 0) {
+                    consumer.accept(high | (i << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            out.writeBoolean(true);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        static BitmapContainer read(DataInput in) throws IOException {
+            long[] words = new long[BITMAP_WORDS];
+            int cardinality = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] = in.readLong();
+                cardinality += Long.bitCount(words[i]);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[Math.max(cardinality, 4)];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long bits = words[i];
+                while (bits != 0) {
+                    values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+import java.util.*;
+
+//запись в виде Map поверх колоночного хранилища: представление хранит только номер строки,
+//а значение берётся из колонки при обращении к нему, под блокировкой чтения базы
+//уплотнение и очистка не меняют хранилище, а подставляют в базу новое, поэтому номер строки
+//остаётся действительным: после них представление читает прежнее хранилище
+//представление только для чтения: при первом изменении делается собственная копия строки,
+//хранилище при этом не меняется (копирование при записи)
+class RowView extends AbstractMap<String, Object> {
+    private final Database database;
+    private final ColumnStore store;
+    private final int row;
+    private final int[] projection;
+    private Map<String, Object> copy;
+
+    RowView(Database database, ColumnStore store, int row, int[] projection) {
+        this.database = database;
+        this.store = store;
+        this.row = row;
+        this.projection = projection;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (copy != null) return copy.get(key);
+        return database.read(() -> {
+            int column = columnIndex(key);
+            return column < 0 ? null : store.get(row, column);
+        });
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (copy != null) return copy.containsKey(key);
+        return database.read(() -> columnIndex(key) >= 0);
+    }
+
+    @Override
+    public int size() {
+        if (copy != null) return copy.size();
+        return projection != null ? projection.length : database.read(store::columnCount);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return ensureCopy().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return ensureCopy().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        ensureCopy().clear();
+    }
+
+    //обход (equals, hashCode, toString) снимает всю строку одним чтением,
+    //чтобы не смешать значения до и после изменения строки
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (copy != null) return copy.entrySet();
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return Collections.unmodifiableMap(snapshot()).entrySet().iterator();
+            }
+
+            @Override
+            public int size() {
+                return RowView.this.size();
+            }
+        };
+    }
+
+    private int columnIndex(Object key) {
+        int column = store.columnIndex(key);
+        if (projection == null || column < 0) return column;
+        for (int projected : projection) {
+            if (projected == column) return column;
+        }
+        return -1;
+    }
+
+    private Map<String, Object> snapshot() {
+        return database.read(() -> {
+            int size = projection != null ? projection.length : store.columnCount();
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                int column = projection != null ? projection[i] : i;
+                values.put(store.columnName(column), store.get(row, column));
+            }
+            return values;
+        });
+    }
+
+    private Map<String, Object> ensureCopy() {
+        if (copy == null) {
+            copy = snapshot();
+        }
+        return copy;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,253 @@
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+//словарь слов: сжатое префиксное дерево (radix trie), рёбра помечены цепочками символов,
+//дети узла упорядочены по первому символу метки. Общие начала слов хранятся один раз,
+//строк слов в словаре нет; обход идёт по возрастанию слов
+//поиск по началу слова - спуск по началу и обход поддерева, поиск с опечатками - обход
+//с таблицей расстояния Левенштейна, ветви, где расстояние уже больше допустимого, не посещаются
+class TermTrie<V> {
+    private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+    private static final class Node<V> {
+        char[] label;
+        V value;
+        @SuppressWarnings("unchecked")
+        Node<V>[] children = (Node<V>[]) NO_CHILDREN;
+
+        Node(char[] label) {
+            this.label = label;
+        }
+
+        //номер ребёнка с меткой на символ c или -(место вставки) - 1
+        int find(char c) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char label = children[mid].label[0];
+                if (label < c) {
+                    low = mid + 1;
+                } else if (label > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+
+        void insert(int position, Node<V> child) {
+            Node<V>[] updated = Arrays.copyOf(children, children.length + 1);
+            System.arraycopy(children, position, updated, position + 1, children.length - position);
+            updated[position] = child;
+            children = updated;
+        }
+
+        void removeAt(int position) {
+            Node<V>[] updated = Arrays.copyOf(children, children.length - 1);
+            System.arraycopy(children, position + 1, updated, position, children.length - position - 1);
+            children = updated;
+        }
+
+        //узел без значения с одним ребёнком сливается с ним
+        void absorbChild() {
+            Node<V> child = children[0];
+            char[] merged = Arrays.copyOf(label, label.length + child.label.length);
+            System.arraycopy(child.label, 0, merged, label.length, child.label.length);
+            label = merged;
+            value = child.value;
+            children = child.children;
+        }
+    }
+
+    private final Node<V> root = new Node<>(new char[0]);
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    V get(String key) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int position = node.find(key.charAt(i));
+            if (position < 0) return null;
+            node = node.children[position];
+            char[] label = node.label;
+            if (key.length() - i < label.length) return null;
+            for (char c : label) {
+                if (key.charAt(i++) != c) return null;
+            }
+        }
+        return node.value;
+    }
+
+    V computeIfAbsent(String key, Function<String, V> factory) {
+        V value = get(key);
+        if (value == null) {
+            value = factory.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    //возвращает прежнее значение или null
+    V put(String key, V value) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int position = node.find(key.charAt(i));
+            if (position < 0) {
+                Node<V> leaf = new Node<>(key.substring(i).toCharArray());
+                leaf.value = value;
+                node.insert(-position - 1, leaf);
+                size++;
+                return null;
+            }
+            Node<V> child = node.children[position];
+            char[] label = child.label;
+            int common = 0;
+            while (common < label.length && i + common < key.length() && label[common] == key.charAt(i + common)) {
+                common++;
+            }
+            if (common < label.length) {
+                //ключ расходится с меткой посередине: ребро делится на общую часть и остаток
+                Node<V> split = new Node<>(Arrays.copyOf(label, common));
+                child.label = Arrays.copyOfRange(label, common, label.length);
+                @SuppressWarnings("unchecked")
+                Node<V>[] children = (Node<V>[]) new Node<?>[]{child};
+                split.children = children;
+                node.children[position] = split;
+                child = split;
+            }
+            node = child;
+            i += common;
+        }
+        V previous = node.value;
+        node.value = value;
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    V remove(String key) {
+        Node<V> parent = null;
+        int parentPosition = -1;
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int position = node.find(key.charAt(i));
+            if (position < 0) return null;
+            Node<V> child = node.children[position];
+            char[] label = child.label;
+            if (key.length() - i < label.length) return null;
+            for (char c : label) {
+                if (key.charAt(i++) != c) return null;
+            }
+            parent = node;
+            parentPosition = position;
+            node = child;
+        }
+        V previous = node.value;
+        if (previous == null) return null;
+        node.value = null;
+        size--;
+
+        if (node != root) {
+            if (node.children.length == 0) {
+                parent.removeAt(parentPosition);
+                if (parent != root && parent.value == null && parent.children.length == 1) {
+                    parent.absorbChild();
+                }
+            } else if (node.children.length == 1) {
+                node.absorbChild();
+            }
+        }
+        return previous;
+    }
+
+    //все слова по возрастанию
+    void forEach(BiConsumer<String, V> action) {
+        forEach(root, new StringBuilder(), action);
+    }
+
+    private void forEach(Node<V> node, StringBuilder prefix, BiConsumer<String, V> action) {
+        int length = prefix.length();
+        prefix.append(node.label);
+        if (node.value != null) {
+            action.accept(prefix.toString(), node.value);
+        }
+        for (Node<V> child : node.children) {
+            forEach(child, prefix, action);
+        }
+        prefix.setLength(length);
+    }
+
+    //значения слов, начинающихся с prefix
+    void withPrefix(String prefix, Consumer<V> action) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            int position = node.find(prefix.charAt(i));
+            if (position < 0) return;
+            node = node.children[position];
+            //начало может закончиться посреди метки
+            for (int j = 0; j < node.label.length && i < prefix.length(); j++, i++) {
+                if (node.label[j] != prefix.charAt(i)) return;
+            }
+        }
+        collect(node, action);
+    }
+
+    private void collect(Node<V> node, Consumer<V> action) {
+        if (node.value != null) {
+            action.accept(node.value);
+        }
+        for (Node<V> child : node.children) {
+            collect(child, action);
+        }
+    }
+
+    //значения слов, отличающихся от word не больше чем на maxDistance вставок, удалений и замен символа
+    //строка таблицы - расстояния от прочитанного начала слова словаря до каждого начала word
+    void withinDistance(String word, int maxDistance, Consumer<V> action) {
+        int[] row = new int[word.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        if (root.value != null && row[word.length()] <= maxDistance) {
+            action.accept(root.value);
+        }
+        for (Node<V> child : root.children) {
+            withinDistance(child, word, maxDistance, row, action);
+        }
+    }
+
+    private void withinDistance(Node<V> node, String word, int maxDistance, int[] previous, Consumer<V> action) {
+        int[] row = previous;
+        for (char c : node.label) {
+            int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int best = next[0];
+            for (int i = 1; i < row.length; i++) {
+                int substitution = row[i - 1] + (word.charAt(i - 1) == c ? 0 : 1);
+                next[i] = Math.min(substitution, Math.min(row[i] + 1, next[i - 1] + 1));
+                best = Math.min(best, next[i]);
+            }
+            //дальше расстояние только растёт
+            if (best > maxDistance) return;
+            row = next;
+        }
+        if (node.value != null && row[word.length()] <= maxDistance) {
+            action.accept(node.value);
+        }
+        for (Node<V> child : node.children) {
+            withinDistance(child, word, maxDistance, row, action);
+        }
+    }
+}
\ No newline at end of file
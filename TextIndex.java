@@ -0,0 +1,396 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+//словарный индекс одной строковой колонки для ранжированного поиска (BM25)
+//для каждого слова хранятся строки, где оно есть, и строки, где оно встречается 2, 3... раз:
+//частота слова в строке - 1 + число таких уровней, содержащих строку; повторы слов в коротких
+//значениях редки, поэтому уровни почти пусты. Для каждой строки хранится число слов значения
+//слова лежат в префиксном дереве, поэтому по ним можно искать по началу и с опечатками
+class TextIndex {
+    private static final int LENGTH_PAGE = 4096;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    //строки со словом и уровни повторов: levels[i] - строки, где слово встречается не меньше i + 2 раз
+    static final class Term {
+        final RoaringBitmap rows;
+        final List<RoaringBitmap> levels = new ArrayList<>(0);
+
+        Term() {
+            this(new RoaringBitmap());
+        }
+
+        Term(RoaringBitmap rows) {
+            this.rows = rows;
+        }
+
+        //ещё одно вхождение слова в строку row
+        void addOccurrence(int row) {
+            if (!rows.contains(row)) {
+                rows.add(row);
+                return;
+            }
+            for (RoaringBitmap level : levels) {
+                if (!level.contains(row)) {
+                    level.add(row);
+                    return;
+                }
+            }
+            levels.add(RoaringBitmap.of(row));
+        }
+
+        //список строк для occurrence-го вхождения слова (с 1)
+        RoaringBitmap target(int occurrence) {
+            if (occurrence == 1) return rows;
+            while (levels.size() < occurrence - 1) {
+                levels.add(new RoaringBitmap());
+            }
+            return levels.get(occurrence - 2);
+        }
+
+        void remove(int row) {
+            rows.remove(row);
+            for (RoaringBitmap level : levels) {
+                level.remove(row);
+            }
+            while (!levels.isEmpty() && levels.getLast().isEmpty()) {
+                levels.removeLast();
+            }
+        }
+
+        int frequency(int row) {
+            int frequency = 1;
+            for (RoaringBitmap level : levels) {
+                if (!level.contains(row)) break;
+                frequency++;
+            }
+            return frequency;
+        }
+
+        //наибольшая частота слова, не меньше действительной
+        int maxFrequency() {
+            return levels.size() + 1;
+        }
+
+        void merge(Term other) {
+            rows.or(other.rows);
+            for (int i = 0; i < other.levels.size(); i++) {
+                target(i + 2).or(other.levels.get(i));
+            }
+        }
+    }
+
+    private final TermTrie<Term> terms = new TermTrie<>();
+    //число слов значения по номеру строки, страницами по LENGTH_PAGE
+    private int[][] lengths = new int[0][];
+    private int documents;
+    private long totalLength;
+
+    void add(String value, int row, Tokenizer tokenizer) {
+        int[] length = {0};
+        tokenizer.tokenize(value, word -> {
+            terms.computeIfAbsent(word, k -> new Term()).addOccurrence(row);
+            length[0]++;
+        });
+        addDocument(row, length[0]);
+    }
+
+    void remove(String value, int row, Tokenizer tokenizer) {
+        tokenizer.tokenize(value, word -> {
+            Term term = terms.get(word);
+            if (term != null) {
+                term.remove(row);
+                if (term.rows.isEmpty()) {
+                    terms.remove(word);
+                }
+            }
+        });
+        int length = length(row);
+        if (length >= 0) {
+            lengths[row / LENGTH_PAGE][row % LENGTH_PAGE] = 0;
+        }
+        documents--;
+        totalLength -= Math.max(length, 0);
+    }
+
+    //списки, в которые попадает строка со значением value, и число слов значения
+    //при построении по частям одинаковые значения разбираются на слова один раз
+    int targets(String value, Tokenizer tokenizer, List<RoaringBitmap> targets) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        tokenizer.tokenize(value, word -> {
+            int occurrence = occurrences.merge(word, 1, Integer::sum);
+            targets.add(terms.computeIfAbsent(word, k -> new Term()).target(occurrence));
+        });
+        int length = 0;
+        for (int count : occurrences.values()) {
+            length += count;
+        }
+        return length;
+    }
+
+    //строка row проиндексирована через targets
+    void addDocument(int row, int length) {
+        int page = row / LENGTH_PAGE;
+        if (page >= lengths.length) {
+            lengths = Arrays.copyOf(lengths, Math.max(page + 1, lengths.length * 2));
+        }
+        if (lengths[page] == null) {
+            lengths[page] = new int[LENGTH_PAGE];
+        }
+        lengths[page][row % LENGTH_PAGE] = length;
+        documents++;
+        totalLength += length;
+    }
+
+    private int length(int row) {
+        int page = row / LENGTH_PAGE;
+        return page < lengths.length && lengths[page] != null ? lengths[page][row % LENGTH_PAGE] : -1;
+    }
+
+    //добавить индекс другого набора строк, используется при параллельном построении
+    void merge(TextIndex other) {
+        other.terms.forEach((word, term) -> {
+            Term existing = terms.get(word);
+            if (existing != null) {
+                existing.merge(term);
+            } else {
+                terms.put(word, term);
+            }
+        });
+        if (other.lengths.length > lengths.length) {
+            lengths = Arrays.copyOf(lengths, other.lengths.length);
+        }
+        //части строятся по диапазонам строк, но граница диапазона может лежать внутри страницы
+        for (int page = 0; page < other.lengths.length; page++) {
+            int[] source = other.lengths[page];
+            if (source == null) continue;
+            if (lengths[page] == null) {
+                lengths[page] = source;
+            } else {
+                for (int i = 0; i < LENGTH_PAGE; i++) {
+                    if (source[i] != 0) {
+                        lengths[page][i] = source[i];
+                    }
+                }
+            }
+        }
+        documents += other.documents;
+        totalLength += other.totalLength;
+    }
+
+    boolean isEmpty() {
+        return documents == 0;
+    }
+
+    //строки, где есть слово word
+    RoaringBitmap rows(String word) {
+        Term term = terms.get(word);
+        return term != null ? term.rows : new RoaringBitmap();
+    }
+
+    //строки, где есть слово, начинающееся с prefix
+    RoaringBitmap prefixRows(String prefix) {
+        RoaringBitmap result = new RoaringBitmap();
+        terms.withPrefix(prefix, term -> result.or(term.rows));
+        return result;
+    }
+
+    //строки, где есть слово на расстоянии Левенштейна не больше maxDistance от word
+    RoaringBitmap fuzzyRows(String word, int maxDistance) {
+        RoaringBitmap result = new RoaringBitmap();
+        terms.withinDistance(word, maxDistance, term -> result.or(term.rows));
+        return result;
+    }
+
+    //курсор по строкам одного слова запроса; bound - наибольший вклад слова в оценку любой строки
+    private static final class Cursor {
+        final Term term;
+        final double idf;
+        final double bound;
+        int row;
+
+        Cursor(Term term, double idf) {
+            this.term = term;
+            this.idf = idf;
+            int tf = term.maxFrequency();
+            //вклад растёт с частотой и убывает с длиной, поэтому берём наибольшую частоту и нулевую длину
+            this.bound = idf * tf * (K1 + 1) / (tf + K1 * (1 - B));
+            this.row = term.rows.nextValue(0);
+        }
+
+        void advance(int target) {
+            row = term.rows.nextValue(target);
+        }
+    }
+
+    private static final class Hit {
+        final int row;
+        final double score;
+
+        Hit(int row, double score) {
+            this.row = row;
+            this.score = score;
+        }
+    }
+
+    //до k строк с наибольшей оценкой BM25 по словам query, по убыванию оценки
+    //WAND: курсоры слов упорядочены по текущей строке, строка оценивается полностью, только если
+    //сумма наибольших вкладов слов, дошедших до неё, может превысить худшую оценку среди найденных k
+    int[] top(String query, int k, Tokenizer tokenizer) {
+        if (k <= 0 || documents == 0) return new int[0];
+        Set<String> words = new LinkedHashSet<>();
+        tokenizer.tokenize(query, words::add);
+        double averageLength = Math.max(1.0, (double) totalLength / documents);
+
+        List<Cursor> active = new ArrayList<>();
+        for (String word : words) {
+            Term term = terms.get(word);
+            if (term == null) continue;
+            int frequency = term.rows.getCardinality();
+            double idf = Math.log(1 + (documents - frequency + 0.5) / (frequency + 0.5));
+            active.add(new Cursor(term, idf));
+        }
+        Cursor[] cursors = active.toArray(new Cursor[0]);
+        int count = cursors.length;
+
+        //худшая из найденных оценок в вершине, при равенстве первой вытесняется более поздняя строка
+        PriorityQueue<Hit> best = new PriorityQueue<>(k, (a, b) -> a.score != b.score
+                ? Double.compare(a.score, b.score) : Integer.compare(b.row, a.row));
+        while (true) {
+            count = sortByRow(cursors, count);
+            double threshold = best.size() < k ? -1 : best.peek().score;
+
+            //опорный курсор: первый, на котором сумма наибольших вкладов превышает порог
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < count; i++) {
+                bound += cursors[i].bound;
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) break;
+            int pivotRow = cursors[pivot].row;
+
+            if (cursors[0].row == pivotRow) {
+                double score = 0;
+                int length = Math.max(length(pivotRow), 0);
+                double norm = K1 * (1 - B + B * length / averageLength);
+                for (int i = 0; i < count && cursors[i].row == pivotRow; i++) {
+                    int tf = cursors[i].term.frequency(pivotRow);
+                    score += cursors[i].idf * tf * (K1 + 1) / (tf + norm);
+                    cursors[i].advance(pivotRow + 1);
+                }
+                if (score > threshold) {
+                    best.add(new Hit(pivotRow, score));
+                    if (best.size() > k) {
+                        best.poll();
+                    }
+                }
+            } else {
+                //строки до опорной не наберут порога: подтягиваем к ней курсоры перед опорным
+                for (int i = 0; i < pivot && cursors[i].row < pivotRow; i++) {
+                    cursors[i].advance(pivotRow);
+                }
+            }
+        }
+
+        int[] rows = new int[best.size()];
+        for (int i = rows.length - 1; i >= 0; i--) {
+            rows[i] = best.poll().row;
+        }
+        return rows;
+    }
+
+    //вставками: курсоров мало и после шага они почти упорядочены; закончившиеся уходят в конец
+    private static int sortByRow(Cursor[] cursors, int count) {
+        int live = 0;
+        for (int i = 0; i < count; i++) {
+            if (cursors[i].row >= 0) {
+                cursors[live++] = cursors[i];
+            }
+        }
+        for (int i = 1; i < live; i++) {
+            Cursor cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].row > cursor.row) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+        return live;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(documents);
+        out.writeLong(totalLength);
+        int pages = 0;
+        for (int[] page : lengths) {
+            if (page != null) pages++;
+        }
+        out.writeInt(pages);
+        for (int page = 0; page < lengths.length; page++) {
+            if (lengths[page] == null) continue;
+            out.writeInt(page);
+            for (int length : lengths[page]) {
+                out.writeInt(length);
+            }
+        }
+        out.writeInt(terms.size());
+        List<String> words = new ArrayList<>(terms.size());
+        List<Term> values = new ArrayList<>(terms.size());
+        terms.forEach((word, term) -> {
+            words.add(word);
+            values.add(term);
+        });
+        for (int i = 0; i < words.size(); i++) {
+            byte[] word = words.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(word.length);
+            out.write(word);
+            Term term = values.get(i);
+            term.rows.write(out);
+            out.writeInt(term.levels.size());
+            for (RoaringBitmap level : term.levels) {
+                level.write(out);
+            }
+        }
+    }
+
+    static TextIndex read(DataInput in) throws IOException {
+        TextIndex index = new TextIndex();
+        index.documents = in.readInt();
+        index.totalLength = in.readLong();
+        int pages = in.readInt();
+        for (int i = 0; i < pages; i++) {
+            int page = in.readInt();
+            if (page < 0) {
+                throw new IOException("Неверный номер страницы длин: " + page);
+            }
+            if (page >= index.lengths.length) {
+                index.lengths = Arrays.copyOf(index.lengths, page + 1);
+            }
+            int[] lengths = new int[LENGTH_PAGE];
+            for (int j = 0; j < LENGTH_PAGE; j++) {
+                lengths[j] = in.readInt();
+            }
+            index.lengths[page] = lengths;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte[] word = new byte[in.readInt()];
+            in.readFully(word);
+            Term term = new Term(RoaringBitmap.read(in));
+            int levels = in.readInt();
+            for (int j = 0; j < levels; j++) {
+                term.levels.add(RoaringBitmap.read(in));
+            }
+            index.terms.put(new String(word, StandardCharsets.UTF_8), term);
+        }
+        return index;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,21 @@
+import java.util.Set;
+import java.util.function.Consumer;
+
+//разбиение строкового значения на слова для словарного индекса
+//вызывается параллельно из построения индексов, поэтому реализация не должна хранить
+//состояние разбора в полях; одинаковый текст должен давать одинаковые слова, иначе
+//удаление записи не найдёт её слов в индексе
+public interface Tokenizer {
+    //слова длиннее двух символов, разделитель - пробельные символы, без стоп-слов и нормализации
+    Tokenizer DEFAULT = new WordTokenizer(3, Set.of(), null);
+
+    void tokenize(String text, Consumer<String> terms);
+
+    //слово запроса (поиск по началу слова, с опечатками) в том виде, в каком слова лежат в индексе;
+    //по умолчанию только нижний регистр по символам, как у WordTokenizer, без учёта локали
+    default String normalize(String word) {
+        StringBuilder folded = new StringBuilder(word.length());
+        word.codePoints().map(Character::toLowerCase).forEach(folded::appendCodePoint);
+        return folded.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+//индекс триграмм одной строковой колонки для поиска по подстроке
+//значение приводится к нижнему регистру и обрамляется символом \0, поэтому
+//любая подстрока из 1-2 символов тоже входит хотя бы в одну триграмму
+class TrigramIndex {
+    private static final char BOUNDARY = '\0';
+
+    private final Map<Long, RoaringBitmap> postings = new HashMap<>();
+    private final RoaringBitmap rows = new RoaringBitmap();
+
+    void add(String value, int row) {
+        String text = pad(value.toLowerCase());
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            postings.computeIfAbsent(trigram(text, i), k -> new RoaringBitmap()).add(row);
+        }
+        rows.add(row);
+    }
+
+    //списки, в которые попадает строка со значением value: списки его триграмм и список всех строк
+    //при построении по частям одинаковые значения разбираются на триграммы один раз
+    List<RoaringBitmap> targets(String value) {
+        String text = pad(value.toLowerCase());
+        List<RoaringBitmap> targets = new ArrayList<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            targets.add(postings.computeIfAbsent(trigram(text, i), k -> new RoaringBitmap()));
+        }
+        targets.add(rows);
+        return targets;
+    }
+
+    void remove(String value, int row) {
+        String text = pad(value.toLowerCase());
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            long key = trigram(text, i);
+            RoaringBitmap indices = postings.get(key);
+            if (indices != null) {
+                indices.remove(row);
+                if (indices.isEmpty()) {
+                    postings.remove(key);
+                }
+            }
+        }
+        rows.remove(row);
+    }
+
+    //добавить индекс другого набора строк, используется при параллельном построении
+    void merge(TrigramIndex other) {
+        for (Map.Entry<Long, RoaringBitmap> entry : other.postings.entrySet()) {
+            RoaringBitmap existing = postings.putIfAbsent(entry.getKey(), entry.getValue());
+            if (existing != null) {
+                existing.or(entry.getValue());
+            }
+        }
+        rows.or(other.rows);
+    }
+
+    boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    //строки, которые могут содержать searchText (уже в нижнем регистре), их нужно проверить
+    RoaringBitmap candidates(String searchText) {
+        if (searchText.isEmpty()) {
+            return rows.copy();
+        }
+
+        //короткий запрос: объединяем триграммы, в которые он входит, их число не зависит от словаря
+        if (searchText.length() < 3) {
+            RoaringBitmap result = new RoaringBitmap();
+            for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+                if (decode(entry.getKey()).contains(searchText)) {
+                    result.or(entry.getValue());
+                }
+            }
+            return result;
+        }
+
+        //длинный запрос: пересекаем триграммы, начиная с самой редкой
+        List<RoaringBitmap> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= searchText.length(); i++) {
+            RoaringBitmap indices = postings.get(trigram(searchText, i));
+            if (indices == null) {
+                return new RoaringBitmap();
+            }
+            lists.add(indices);
+        }
+        lists.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+
+        RoaringBitmap result = lists.get(0).copy();
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result.and(lists.get(i));
+        }
+        return result;
+    }
+
+    //верхняя оценка числа подходящих строк без проверки значений
+    int estimate(String searchText) {
+        if (searchText.length() < 3) {
+            return rows.getCardinality();
+        }
+        int estimate = rows.getCardinality();
+        for (int i = 0; i + 3 <= searchText.length(); i++) {
+            RoaringBitmap indices = postings.get(trigram(searchText, i));
+            estimate = Math.min(estimate, indices == null ? 0 : indices.getCardinality());
+        }
+        return estimate;
+    }
+
+    void write(DataOutput out) throws IOException {
+        rows.write(out);
+        out.writeInt(postings.size());
+        for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+            out.writeLong(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    static TrigramIndex read(DataInput in) throws IOException {
+        TrigramIndex index = new TrigramIndex();
+        index.rows.or(RoaringBitmap.read(in));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            index.postings.put(in.readLong(), RoaringBitmap.read(in));
+        }
+        return index;
+    }
+
+    private static String pad(String text) {
+        return BOUNDARY + text + BOUNDARY;
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private static String decode(long trigram) {
+        return new String(new char[]{(char) (trigram >>> 32), (char) (trigram >>> 16), (char) trigram});
+    }
+}
\ No newline at end of file
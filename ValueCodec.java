@@ -0,0 +1,74 @@
+import java.io.*;
+
+//двоичная запись значений ячеек для журнала: тег типа и само значение,
+//типы без собственного тега записываются стандартной сериализацией
+class ValueCodec {
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte STRING = 4;
+    private static final byte SERIALIZED = 5;
+
+    private ValueCodec() {
+    }
+
+    static void write(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            //writeUTF ограничен 64 КБ, поэтому длина и байты пишутся отдельно
+            byte[] bytes = ((String) value).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+                oos.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            out.writeInt(buffer.size());
+            out.write(buffer.toByteArray());
+        }
+    }
+
+    static Object read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return in.readInt();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return new String(readBytes(in), java.nio.charset.StandardCharsets.UTF_8);
+            case SERIALIZED:
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Неизвестный тип значения в журнале: " + e.getMessage(), e);
+                }
+            default:
+                throw new IOException("Повреждённое значение в журнале, тег " + tag);
+        }
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Consumer;
+
+//разбор без регулярных выражений: текст просматривается по символам, слово складывается
+//в нижнем регистре в буфер потока, готовая строка слова берётся из словаря слов потока,
+//поэтому уже встречавшееся слово не создаёт ни одного объекта
+//слова разделяются пробельными символами (те же, что \s в регулярных выражениях)
+public class WordTokenizer implements Tokenizer {
+    private static final int DICTIONARY_SIZE = 1 << 14;
+
+    //буфер слова и словарь: таблица прямого отображения по хешу, при совпадении хешей
+    //слово вытесняет прежнее, так что размер словаря ограничен
+    private static final class State {
+        char[] buffer = new char[64];
+        final String[] dictionary = new String[DICTIONARY_SIZE];
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private final int minLength;
+    private final Set<String> stopWords;
+    private final Normalizer.Form form;
+
+    //minLength - наименьшая длина слова в символах, stopWords не индексируются (сравниваются
+    //в нижнем регистре), form - нормализация Unicode перед разбором, null без нормализации
+    public WordTokenizer(int minLength, Collection<String> stopWords, Normalizer.Form form) {
+        if (minLength < 1) {
+            throw new IllegalArgumentException("Длина слова должна быть положительной");
+        }
+        this.minLength = minLength;
+        this.stopWords = Set.copyOf(stopWords.stream().map(String::toLowerCase).toList());
+        this.form = form;
+    }
+
+    @Override
+    public void tokenize(String text, Consumer<String> terms) {
+        //нормализованный текст (обычный случай) не копируется
+        if (form != null && !Normalizer.isNormalized(text, form)) {
+            text = Normalizer.normalize(text, form);
+        }
+        State state = STATE.get();
+        char[] buffer = state.buffer;
+        int length = 0;
+        int hash = 0;
+        for (int i = 0, end = text.length(); i <= end; ) {
+            int codePoint = i < end ? text.codePointAt(i) : ' ';
+            i += i < end ? Character.charCount(codePoint) : 1;
+            if (!isSpace(codePoint)) {
+                codePoint = Character.toLowerCase(codePoint);
+                if (length + 2 > buffer.length) {
+                    buffer = state.buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                if (Character.isBmpCodePoint(codePoint)) {
+                    buffer[length++] = (char) codePoint;
+                    hash = 31 * hash + codePoint;
+                } else {
+                    char high = Character.highSurrogate(codePoint);
+                    char low = Character.lowSurrogate(codePoint);
+                    buffer[length++] = high;
+                    buffer[length++] = low;
+                    hash = 31 * (31 * hash + high) + low;
+                }
+                continue;
+            }
+            if (length >= minLength) {
+                String term = term(state, buffer, length, hash);
+                if (stopWords.isEmpty() || !stopWords.contains(term)) {
+                    terms.accept(term);
+                }
+            }
+            length = 0;
+            hash = 0;
+        }
+    }
+
+    //та же нормализация Unicode и тот же нижний регистр, что при разборе, но без отбора по длине
+    @Override
+    public String normalize(String word) {
+        if (form != null && !Normalizer.isNormalized(word, form)) {
+            word = Normalizer.normalize(word, form);
+        }
+        return Tokenizer.super.normalize(word);
+    }
+
+    //строка слова из словаря потока, hash считается так же, как String.hashCode
+    private static String term(State state, char[] buffer, int length, int hash) {
+        int slot = (hash ^ (hash >>> 16)) & (DICTIONARY_SIZE - 1);
+        String term = state.dictionary[slot];
+        if (term != null && term.length() == length) {
+            int i = 0;
+            while (i < length && term.charAt(i) == buffer[i]) {
+                i++;
+            }
+            if (i == length) {
+                return term;
+            }
+        }
+        term = new String(buffer, 0, length);
+        state.dictionary[slot] = term;
+        return term;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
\ No newline at end of file
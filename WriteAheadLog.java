@@ -0,0 +1,165 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+//журнал операций рядом с файлом базы (<файл>.wal): изменения дописываются в конец,
+//а полный файл базы перезаписывается только при контрольной точке
+//запись: длина данных, LSN, тип операции, данные, CRC32 от LSN, типа и данных;
+//недописанный хвост после сбоя определяется по длине или CRC и отбрасывается
+class WriteAheadLog implements Closeable {
+    static final byte ADD = 1;
+    static final byte UPDATE = 2;
+    static final byte REMOVE = 3;
+    static final byte CLEAR = 4;
+    //момент фонового уплотнения: номера строк в следующих записях уже после него
+    static final byte COMPACT = 5;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + 1;
+    private static final int MAX_ENTRY_SIZE = 1 << 30;
+
+    //применение операции из журнала при открытии базы
+    interface Replay {
+        void apply(byte type, DataInput data) throws IOException;
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final Object syncLock = new Object();
+    private long lastLsn;
+    private volatile long durableLsn;
+
+    private WriteAheadLog(File file, FileChannel channel, long lastLsn) {
+        this.file = file;
+        this.channel = channel;
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+    }
+
+    static File fileFor(File databaseFile) {
+        return new File(databaseFile.getPath() + ".wal");
+    }
+
+    //новый пустой журнал, прежнее содержимое файла отбрасывается
+    static WriteAheadLog create(File databaseFile, long lastLsn) throws IOException {
+        File file = fileFor(databaseFile);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.force(true);
+        return new WriteAheadLog(file, channel, lastLsn);
+    }
+
+    //открытие существующего журнала: операции после контрольной точки передаются в replay,
+    //повреждённый хвост обрезается, дальнейшие записи продолжают журнал
+    static WriteAheadLog open(File databaseFile, long checkpointLsn, Replay replay) throws IOException {
+        File file = fileFor(databaseFile);
+        if (!file.exists()) {
+            return create(databaseFile, checkpointLsn);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long lastLsn = checkpointLsn;
+            long position = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try (in) {
+                while (true) {
+                    int length;
+                    long lsn;
+                    byte type;
+                    byte[] data;
+                    int crc;
+                    try {
+                        length = in.readInt();
+                        if (length < 0 || length > MAX_ENTRY_SIZE) break;
+                        lsn = in.readLong();
+                        type = in.readByte();
+                        data = new byte[length];
+                        in.readFully(data);
+                        crc = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (crc != checksum(lsn, type, data)) break;
+
+                    //записи до контрольной точки уже есть в файле базы
+                    if (lsn > checkpointLsn) {
+                        replay.apply(type, new DataInputStream(new ByteArrayInputStream(data)));
+                    }
+                    lastLsn = Math.max(lastLsn, lsn);
+                    position += HEADER_SIZE + length + Integer.BYTES;
+                }
+            }
+
+            channel.truncate(position);
+            channel.position(position);
+            channel.force(true);
+            return new WriteAheadLog(file, channel, lastLsn);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //дописывает операцию без fsync, возвращает её LSN; надёжной она станет после sync
+    synchronized long append(byte type, byte[] data) throws IOException {
+        long lsn = lastLsn + 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length + Integer.BYTES);
+        buffer.putInt(data.length).putLong(lsn).put(type).put(data).putInt(checksum(lsn, type, data));
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        lastLsn = lsn;
+        return lsn;
+    }
+
+    //групповая фиксация: один fsync покрывает все записи, дописанные к его началу,
+    //поэтому потоки, ждущие своей очереди, часто возвращаются без собственного fsync
+    void sync(long lsn) throws IOException {
+        if (durableLsn >= lsn) return;
+        synchronized (syncLock) {
+            if (durableLsn >= lsn) return;
+            long target = lastLsn();
+            channel.force(false);
+            durableLsn = target;
+        }
+    }
+
+    synchronized long lastLsn() {
+        return lastLsn;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    //после контрольной точки всё содержимое журнала уже есть в файле базы
+    void reset() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+                durableLsn = lastLsn;
+            }
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int checksum(long lsn, byte type, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES + 1).putLong(lsn).put(type).array());
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+//проверки тестов: несработавшая проверка печатается и считается, тест идёт дальше,
+//итог подводит RunTests
+final class Check {
+    private static int failures;
+
+    private Check() {
+    }
+
+    static void that(boolean condition, String message) {
+        if (!condition) {
+            failures++;
+            System.out.println("ОШИБКА: " + message);
+        }
+    }
+
+    static int failures() {
+        return failures;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+import java.util.*;
+
+//проверка базы в памяти: условия равенства со значением другого типа по упорядоченному
+//индексу, по первичному ключу и по всем полям сразу; список getRecords после уплотнения;
+//представления записей в результатах поиска после изменений
+//запуск: test/run.sh DatabaseTest
+class DatabaseTest {
+    static void run() {
+        checkEqualityTypes();
+        checkRecordsAfterCompaction();
+        checkViewsAfterChanges();
+    }
+
+    //значение приводится к типу колонки, как при вставке; неприводимое значение ничего не находит
+    private static void checkEqualityTypes() {
+        Database database = new Database();
+        database.addColumn("id", Integer.class, true);
+        database.addColumn("price", Double.class, false, DatabaseColumn.IndexType.SORTED);
+        database.addColumn("count", Integer.class, false, DatabaseColumn.IndexType.SORTED);
+        database.addColumn("name", String.class, false);
+        for (int i = 0; i < 10; i++) {
+            database.addRecord(Map.of("id", i, "price", (double) (i % 3), "count", i % 4, "name", "товар " + i));
+        }
+
+        Check.that(database.search("price", 1, false).size() == 3, "целое значение по дробному упорядоченному индексу");
+        Check.that(database.search("count", 2.0, false).size() == 2, "дробное значение по целому упорядоченному индексу");
+        Check.that(database.search("count", 2.5, false).isEmpty(), "нецелое значение по целому индексу");
+        Check.that(database.search("price", "abc", false).isEmpty(), "строка по дробному индексу");
+        Check.that(database.search("id", 5.0, false).size() == 1, "дробное значение по первичному ключу");
+        Check.that(database.search("id", "abc", false).isEmpty(), "строка по первичному ключу");
+        Check.that(database.search("ANY_FIELD", "abc", false).isEmpty(), "строка по всем полям");
+        Check.that(database.search("ANY_FIELD", "товар 4", false).size() == 1, "строка по всем полям находит свою колонку");
+
+        Check.that(database.query(Query.where(Query.eq("price", 2))).size() == 3, "eq с целым по дробной колонке");
+        Check.that(database.query(Query.where(Query.eq("price", "abc"))).isEmpty(), "eq со строкой по дробной колонке");
+        //второе условие проверяется по строкам, значение в нём тоже приводится
+        Check.that(database.query(Query.where(Query.and(Query.eq("id", 4), Query.eq("price", 1)))).size() == 1,
+                "eq с целым по дробной колонке при проверке строк");
+        Check.that(database.query(Query.where(Query.and(Query.eq("id", 4), Query.eq("price", "x")))).isEmpty(),
+                "eq со строкой при проверке строк");
+        Check.that(database.query(Query.where(Query.and(Query.eq("id", 4), Query.not(Query.eq("count", 0.0))))).isEmpty(),
+                "not eq с дробным по целой колонке");
+        Check.that(database.removeRecords("price", 0, false) == 4, "удаление по целому значению в дробной колонке");
+    }
+
+    //уплотнение подставляет новое хранилище: полученный раньше getRecords() читает уже его,
+    //видит последующие изменения, а следящие за базой получают reloaded
+    private static void checkRecordsAfterCompaction() {
+        Database database = new Database();
+        database.addColumn("id", Integer.class, true);
+        database.addColumn("name", String.class, false);
+        for (int i = 0; i < 3000; i++) {
+            database.addRecord(Map.of("id", i, "name", "запись " + i));
+        }
+        int[] reloads = new int[1];
+        database.addChangeListener(new Database.ChangeListener() {
+            public void rowsInserted(int fromRow, int toRow) { }
+            public void rowUpdated(int row) { }
+            public void rowsDeleted(int[] rows) { }
+            public void reloaded() { reloads[0]++; }
+        });
+        List<Map<String, Object>> records = database.getRecords();
+        Iterator<Map<String, Object>> iterator = records.iterator();
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+
+        database.removeRecords(Query.where(Query.range("id", 0, 1999, true)));
+        database.awaitCompaction();
+        Check.that(reloads[0] == 1, "уведомление об уплотнении");
+        database.addRecord(Map.of("id", 5000, "name", "новая"));
+        database.updateRecord(2500, Map.of("name", "изменена"));
+
+        Check.that(records.size() == 1001, "размер списка после уплотнения");
+        Check.that(Integer.valueOf(5000).equals(records.get(1000).get("id")), "добавленная после уплотнения запись");
+        Check.that("изменена".equals(records.get(500).get("name")), "изменённая после уплотнения запись");
+        int rest = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            rest++;
+        }
+        Check.that(rest == records.size() - 10, "обход, начатый до уплотнения, продолжается с того же места");
+    }
+
+    //представление читает значения из базы при обращении, а изменение самого представления
+    //базу не трогает; удалённая запись в повторном поиске уже не находится
+    private static void checkViewsAfterChanges() {
+        Database database = new Database();
+        database.addColumn("id", Integer.class, true);
+        database.addColumn("name", String.class, false);
+        database.addColumn("price", Double.class, false, DatabaseColumn.IndexType.SORTED);
+        for (int i = 0; i < 100; i++) {
+            database.addRecord(Map.of("id", i, "name", "запись " + i, "price", i * 1.5));
+        }
+        Query query = Query.where(Query.range("price", 0.0, 30.0, true)).select("id", "name");
+        List<Map<String, Object>> found = database.query(query);
+        Map<String, Object> view = found.get(5);
+        Map<String, Object> ordered = database.getRecordsOrderedBy("price", true, 10).get(5);
+
+        database.updateRecord(5, Map.of("name", "изменена"));
+        Check.that("изменена".equals(view.get("name")) && "изменена".equals(ordered.get("name")),
+                "представление видит изменение записи");
+        Check.that(view.size() == 2 && !view.containsKey("price") && view.get("price") == null,
+                "представление с выбранными полями");
+        Check.that(view.equals(Map.of("id", 5, "name", "изменена")), "обход представления");
+
+        view.put("name", "своя копия");
+        Check.that("своя копия".equals(view.get("name")) && "изменена".equals(ordered.get("name")),
+                "изменение представления не меняет базу");
+
+        database.removeRecords("id", 7, false);
+        List<Map<String, Object>> again = database.query(Query.where(query.getWhere()));
+        Check.that(again.size() == found.size() - 1 && again.stream().noneMatch(record -> record.get("id").equals(7)),
+                "повторный поиск после удаления");
+    }
+}
\ No newline at end of file
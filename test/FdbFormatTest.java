@@ -0,0 +1,164 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+//проверка FdbFormat: снимок с колонками всех видов (числа, строки, логические, сериализуемые
+//значения), пустыми ячейками и удалёнными строками на нескольких страницах записывается
+//и читается целиком и постранично без потерь; уплотнённая копия и сериализация страничных
+//колонок дают те же строки; индексы переживают сохранение базы, испорченная страница не читается молча
+//запуск: test/run.sh FdbFormatTest
+class FdbFormatTest {
+    private static final int ROWS = FdbFormat.PAGE_ROWS * 2 + 123;
+
+    static void run() throws Exception {
+        File file = File.createTempFile("fdb-test", ".fdb");
+        try {
+            Random random = new Random(9);
+            List<DatabaseColumn> columns = List.of(new DatabaseColumn("id", Integer.class),
+                    new DatabaseColumn("price", Double.class), new DatabaseColumn("active", Boolean.class),
+                    new DatabaseColumn("name", String.class), new DatabaseColumn("date", LocalDate.class));
+            ColumnStore store = new ColumnStore();
+            for (DatabaseColumn column : columns) {
+                store.addColumn(column.getName(), column.getType());
+            }
+            for (int row = 0; row < ROWS; row++) {
+                store.appendRow(new Object[]{row, nullOr(random, random.nextDouble() * 1000),
+                        nullOr(random, random.nextBoolean()), nullOr(random, name(random)),
+                        nullOr(random, LocalDate.ofEpochDay(random.nextInt(30000)))});
+            }
+            for (int row = 0; row < ROWS; row += 1 + random.nextInt(10)) {
+                store.delete(row);
+            }
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                FdbFormat.write(channel, new FdbFormat.Snapshot(columns, "id", 42, store, null, null));
+            }
+            Check.that(FdbFormat.isFdbFile(file), "isFdbFile");
+
+            FdbFormat.Snapshot read = FdbFormat.read(file);
+            checkSnapshot("чтение целиком", read, store);
+            Check.that(read.indexes == null, "индексов в файле нет");
+
+            //кэш меньше одной страницы: страницы вытесняются и читаются заново
+            FdbFormat.Snapshot paged = FdbFormat.open(file, 1);
+            try {
+                checkSnapshot("страничное чтение", paged, store);
+                checkSnapshot("страничное чтение повторно", paged, store);
+                checkPagedCopies(paged.store, store);
+            } finally {
+                paged.pageCache.close();
+            }
+
+            checkDatabase(file);
+        } finally {
+            Database.deleteFiles(file);
+        }
+    }
+
+    //база с индексами: после сохранения и чтения записи и поиск по индексам те же;
+    //испорченный байт в файле даёт ошибку чтения, а не другие данные
+    private static void checkDatabase(File file) throws Exception {
+        Database database = new Database();
+        database.addColumn("id", Integer.class, true);
+        database.addColumn("city", String.class, false);
+        database.addColumn("age", Integer.class, false, DatabaseColumn.IndexType.SORTED);
+        Random random = new Random(13);
+        String[] cities = {"Москва", "Казань", "Тверь", "Омск"};
+        for (int i = 0; i < ROWS; i++) {
+            database.addRecord(Map.of("id", i, "city", cities[random.nextInt(cities.length)] + " " + i % 7,
+                    "age", random.nextInt(90)));
+        }
+        database.removeRecords(Query.where(Query.range("age", 10, 20, true)));
+        database.saveToFile(file);
+        database.close();
+
+        Check.that(FdbFormat.read(file).indexes != null, "индексы записаны в файл и подходят к данным");
+        Database read = Database.readSnapshot(file);
+        Check.that(read.getRecords().equals(database.getRecords()), "записи базы после чтения");
+        for (Query query : List.of(Query.where(Query.eq("id", 500)), Query.where(Query.range("age", 30, 35, false)),
+                Query.where(Query.contains("city", "зань 3")), Query.where(Query.and(Query.eq("age", 50), Query.not(Query.eq("id", 7)))))) {
+            Check.that(read.query(query).equals(database.query(query)), "запрос " + query.getWhere() + " после чтения");
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length / 3] ^= 0x10;
+        Files.write(file.toPath(), bytes);
+        boolean rejected = false;
+        try {
+            FdbFormat.read(file);
+        } catch (IOException e) {
+            rejected = true;
+        }
+        Check.that(rejected, "испорченный файл не читается");
+    }
+
+    private static void checkSnapshot(String name, FdbFormat.Snapshot snapshot, ColumnStore expected) {
+        Check.that(snapshot.checkpointLsn == 42 && "id".equals(snapshot.primaryKey), name + ": заголовок");
+        Check.that(snapshot.columns.size() == 5 && snapshot.columns.get(4).getType() == LocalDate.class, name + ": колонки");
+        ColumnStore store = snapshot.store;
+        Check.that(store.deletedRows().equals(expected.deletedRows()), name + ": удалённые строки");
+        checkRows(name, store, expected);
+    }
+
+    //уплотнённая копия страничного хранилища читает те же страницы файла, изменённые и добавленные
+    //строки переносятся в неё; сериализованное страничное хранилище читается обычным в куче
+    private static void checkPagedCopies(ColumnStore paged, ColumnStore expected) throws Exception {
+        Object[] added = {ROWS, 1.5, true, "новая", null};
+        for (ColumnStore store : List.of(paged, expected)) {
+            store.set(FdbFormat.PAGE_ROWS + 1, 3, "изменена");
+            store.appendRow(added);
+        }
+        ColumnStore copy = paged.compactedCopy();
+        ColumnStore heap = expected.compactedCopy();
+        Check.that(copy.column(3) instanceof PagedColumn, "уплотнённая копия остаётся страничной");
+        checkRows("уплотнённая копия", copy, heap);
+
+        copy.delete(1);
+        heap.delete(1);
+        copy.set(2, 0, -2);
+        heap.set(2, 0, -2);
+        checkRows("копия уплотнённой копии", copy.compactedCopy(), heap.compactedCopy());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(copy);
+        }
+        ColumnStore restored;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (ColumnStore) in.readObject();
+        }
+        Check.that(!(restored.column(3) instanceof PagedColumn), "сериализованная колонка читается обычной");
+        checkRows("сериализация", restored, heap);
+    }
+
+    private static void checkRows(String name, ColumnStore store, ColumnStore expected) {
+        Check.that(store.size() == expected.size() && store.liveCount() == expected.liveCount(), name + ": число строк");
+        for (int row = 0; row < expected.size(); row++) {
+            for (int column = 0; column < expected.columnCount(); column++) {
+                if (!Objects.equals(store.get(row, column), expected.get(row, column))) {
+                    Check.that(false, name + ": строка " + row + ", колонка " + column + ": "
+                            + store.get(row, column) + " вместо " + expected.get(row, column));
+                    return;
+                }
+            }
+        }
+    }
+
+    private static Object nullOr(Random random, Object value) {
+        return random.nextInt(10) == 0 ? null : value;
+    }
+
+    //строки разной длины, в том числе пустые и не из ASCII
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            name.append(random.nextBoolean() ? (char) ('a' + random.nextInt(26)) : (char) ('а' + random.nextInt(32)));
+        }
+        return name.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+import java.util.*;
+
+//проверка KeyIndex против HashMap: числовая таблица с открытой адресацией (удаление со сдвигом
+//цепочки, рост), особые значения Double, ключи чужого типа, перенос putAll
+//запуск: test/run.sh KeyIndexTest
+class KeyIndexTest {
+    static void run() {
+        Random random = new Random(11);
+        for (Class<?> type : List.of(Integer.class, Double.class, String.class)) {
+            KeyIndex index = KeyIndex.forType(type);
+            Map<Object, Integer> model = new HashMap<>();
+            for (int i = 0; i < 200000; i++) {
+                //узкий диапазон ключей: длинные цепочки и частые удаления из их середины
+                Object key = key(type, random.nextInt(5000));
+                int row = random.nextInt(1 << 20);
+                switch (random.nextInt(3)) {
+                    case 0 -> Check.that(index.remove(key) == orAbsent(model.remove(key)), type.getSimpleName() + ": remove");
+                    case 1 -> Check.that(index.put(key, row) == orAbsent(model.put(key, row)), type.getSimpleName() + ": put");
+                    default -> Check.that(index.get(key) == orAbsent(model.get(key)), type.getSimpleName() + ": get");
+                }
+            }
+            checkSame(type.getSimpleName(), index, model);
+
+            KeyIndex copy = KeyIndex.forType(type);
+            copy.put(key(type, 100000), 1);
+            copy.putAll(index);
+            model.put(key(type, 100000), 1);
+            checkSame(type.getSimpleName() + " putAll", copy, model);
+
+            for (Object key : new ArrayList<>(model.keySet())) {
+                index.remove(key);
+            }
+            Check.that(index.isEmpty() && index.get(key(type, 1)) == KeyIndex.ABSENT, type.getSimpleName() + ": пусто после удаления всех");
+        }
+
+        KeyIndex doubles = KeyIndex.forType(Double.class);
+        doubles.put(0.0, 1);
+        doubles.put(-0.0, 2);
+        doubles.put(Double.NaN, 3);
+        Check.that(doubles.get(0.0) == 1 && doubles.get(-0.0) == 2 && doubles.get(Double.NaN) == 3, "0.0, -0.0 и NaN как в Double.equals");
+
+        KeyIndex integers = KeyIndex.forType(Integer.class);
+        integers.put(5, 1);
+        Check.that(integers.get(5L) == KeyIndex.ABSENT && integers.get("5") == KeyIndex.ABSENT && integers.get(null) == KeyIndex.ABSENT,
+                "ключ другого класса не находится");
+        Check.that(integers.remove(5.0) == KeyIndex.ABSENT && integers.size() == 1, "ключ другого класса не удаляется");
+        boolean rejected = false;
+        try {
+            integers.put("5", 2);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        Check.that(rejected, "put ключа другого класса отклоняется");
+        Check.that(Arrays.equals(integers.keys(), new Object[]{5}) && integers.keys()[0] instanceof Integer, "keys() возвращает Integer");
+    }
+
+    private static Object key(Class<?> type, int value) {
+        if (type == Integer.class) return value;
+        if (type == Double.class) return value / 4.0;
+        return "k" + value;
+    }
+
+    private static int orAbsent(Integer row) {
+        return row != null ? row : KeyIndex.ABSENT;
+    }
+
+    private static void checkSame(String name, KeyIndex index, Map<Object, Integer> model) {
+        Check.that(index.size() == model.size(), name + ": размер " + index.size() + " вместо " + model.size());
+        for (Map.Entry<Object, Integer> entry : model.entrySet()) {
+            if (index.get(entry.getKey()) != entry.getValue()) {
+                Check.that(false, name + ": ключ " + entry.getKey());
+                return;
+            }
+        }
+        Map<Object, Integer> seen = new HashMap<>();
+        index.forEach(seen::put);
+        Check.that(seen.equals(model), name + ": forEach");
+    }
+}
\ No newline at end of file
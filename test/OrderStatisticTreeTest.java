@@ -0,0 +1,67 @@
+import java.util.*;
+
+//проверка OrderStatisticTree против отсортированного списка: rank и select после случайных
+//добавлений и удалений, построение of() из готовых ключей
+//запуск: test/run.sh OrderStatisticTreeTest
+class OrderStatisticTreeTest {
+    static void run() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            OrderStatisticTree tree = new OrderStatisticTree();
+            TreeSet<Integer> model = new TreeSet<>();
+            int operations = 1 + random.nextInt(5000);
+            for (int i = 0; i < operations; i++) {
+                int key = random.nextInt(2000);
+                //дерево не хранит повторов, поэтому добавляем только новые ключи
+                if (model.contains(key)) {
+                    tree.remove(key);
+                    model.remove(key);
+                } else {
+                    tree.add(key);
+                    model.add(key);
+                }
+            }
+            checkSame("случайные изменения", tree, model);
+
+            OrderStatisticTree built = OrderStatisticTree.of(model.toArray());
+            checkSame("of()", built, model);
+            Integer first = model.isEmpty() ? null : model.first();
+            if (first != null) {
+                built.remove(first);
+                model.remove(first);
+                checkSame("удаление после of()", built, model);
+            }
+        }
+
+        OrderStatisticTree empty = OrderStatisticTree.of(new Object[0]);
+        Check.that(empty.size() == 0 && empty.select(0) == null && empty.rank(5) == 0, "пустое дерево");
+
+        //строки: место отсутствующего ключа - число ключей меньше него
+        OrderStatisticTree strings = OrderStatisticTree.of(new Object[]{"b", "d", "a"});
+        Check.that(strings.rank("c") == 2 && strings.rank("a") == 0 && strings.rank("z") == 3, "rank строк");
+        Check.that("d".equals(strings.select(2)) && strings.select(3) == null && strings.select(-1) == null, "select строк");
+
+        //возрастающие ключи не вырождают дерево в список: глубина рекурсии не переполняет стек
+        OrderStatisticTree sequential = new OrderStatisticTree();
+        for (int i = 0; i < 1_000_000; i++) {
+            sequential.add(i);
+        }
+        Check.that(sequential.size() == 1_000_000 && sequential.rank(500_000) == 500_000
+                && Integer.valueOf(999_999).equals(sequential.select(999_999)), "последовательные ключи");
+    }
+
+    private static void checkSame(String name, OrderStatisticTree tree, TreeSet<Integer> model) {
+        Check.that(tree.size() == model.size(), name + ": размер " + tree.size() + " вместо " + model.size());
+        List<Integer> sorted = new ArrayList<>(model);
+        for (int i = 0; i < sorted.size(); i++) {
+            if (!sorted.get(i).equals(tree.select(i)) || tree.rank(sorted.get(i)) != i) {
+                Check.that(false, name + ": место " + i);
+                return;
+            }
+        }
+        Check.that(tree.select(sorted.size()) == null, name + ": select за концом");
+        for (int key = -1; key <= 2001; key += 37) {
+            Check.that(tree.rank(key) == model.headSet(key).size(), name + ": rank(" + key + ")");
+        }
+    }
+}
\ No newline at end of file
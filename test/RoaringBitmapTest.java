@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.*;
+
+//проверка RoaringBitmap против TreeSet: случайные добавления и удаления вокруг границы
+//массив/битовая карта (4096 значений в контейнере), операции над множествами, поиск следующего,
+//запись и чтение
+//запуск: test/run.sh RoaringBitmapTest
+class RoaringBitmapTest {
+    static void run() throws IOException {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            TreeSet<Integer> model = new TreeSet<>();
+            //плотные значения в первых двух контейнерах и редкие по всему диапазону
+            int operations = 1 + random.nextInt(20000);
+            for (int i = 0; i < operations; i++) {
+                int value = random.nextInt(4) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(1 << 17);
+                if (random.nextInt(3) == 0) {
+                    bitmap.remove(value);
+                    model.remove(value);
+                } else {
+                    bitmap.add(value);
+                    model.add(value);
+                }
+            }
+            checkSame("случайные изменения", bitmap, model);
+
+            for (int i = 0; i < 100; i++) {
+                int from = random.nextInt(1 << 18);
+                Integer expected = model.ceiling(from);
+                Check.that(bitmap.nextValue(from) == (expected != null ? expected : -1), "nextValue(" + from + ")");
+            }
+
+            RoaringBitmap other = new RoaringBitmap();
+            TreeSet<Integer> otherModel = new TreeSet<>();
+            for (int i = 0; i < 10000; i++) {
+                int value = random.nextInt(1 << 17);
+                other.add(value);
+                otherModel.add(value);
+            }
+
+            TreeSet<Integer> expected = new TreeSet<>(model);
+            expected.retainAll(otherModel);
+            checkSame("and", RoaringBitmap.and(bitmap, other), expected);
+            RoaringBitmap inPlace = bitmap.copy();
+            inPlace.and(other);
+            checkSame("and на месте", inPlace, expected);
+
+            expected = new TreeSet<>(model);
+            expected.addAll(otherModel);
+            checkSame("or", RoaringBitmap.or(bitmap, other), expected);
+            inPlace = bitmap.copy();
+            inPlace.or(other);
+            checkSame("or на месте", inPlace, expected);
+
+            expected = new TreeSet<>(model);
+            expected.removeAll(otherModel);
+            checkSame("andNot", RoaringBitmap.andNot(bitmap, other), expected);
+            inPlace = bitmap.copy();
+            inPlace.andNot(other);
+            checkSame("andNot на месте", inPlace, expected);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bitmap.write(new DataOutputStream(bytes));
+            RoaringBitmap read = RoaringBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            checkSame("запись и чтение", read, model);
+            Check.that(read.equals(bitmap) && read.hashCode() == bitmap.hashCode(), "equals после чтения");
+        }
+
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int i = 65000; i < 140000; i++) {
+            model.add(i);
+        }
+        checkSame("range через границы контейнеров", RoaringBitmap.range(65000, 140000), model);
+        checkSame("пустой range", RoaringBitmap.range(10, 10), new TreeSet<>());
+
+        //контейнер переходит в битовую карту и обратно в массив
+        RoaringBitmap bitmap = RoaringBitmap.range(0, 5000);
+        for (int i = 0; i < 4990; i++) {
+            bitmap.remove(i);
+        }
+        model = new TreeSet<>();
+        for (int i = 4990; i < 5000; i++) {
+            model.add(i);
+        }
+        checkSame("удаление из битовой карты", bitmap, model);
+        for (int i = 4990; i < 5000; i++) {
+            bitmap.remove(i);
+        }
+        Check.that(bitmap.isEmpty() && bitmap.nextValue(0) == -1, "пустое множество после удаления всех");
+
+        Check.that(RoaringBitmap.of(Integer.MAX_VALUE).nextValue(Integer.MAX_VALUE) == Integer.MAX_VALUE, "наибольшее значение");
+    }
+
+    private static void checkSame(String name, RoaringBitmap bitmap, TreeSet<Integer> model) {
+        int[] expected = model.stream().mapToInt(Integer::intValue).toArray();
+        Check.that(bitmap.getCardinality() == model.size(), name + ": размер " + bitmap.getCardinality() + " вместо " + model.size());
+        Check.that(Arrays.equals(bitmap.toArray(), expected), name + ": toArray");
+        List<Integer> iterated = new ArrayList<>();
+        bitmap.iterator().forEachRemaining((int value) -> iterated.add(value));
+        Check.that(iterated.equals(new ArrayList<>(model)), name + ": iterator");
+        for (int value : expected) {
+            if (!bitmap.contains(value)) {
+                Check.that(false, name + ": нет значения " + value);
+                break;
+            }
+        }
+    }
+}
\ No newline at end of file
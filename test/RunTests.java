@@ -0,0 +1,45 @@
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+
+//запуск тестов: классы *Test рядом с этим классом (или перечисленные в аргументах),
+//у каждого вызывается static void run(); код выхода 1, если хоть одна проверка не прошла
+//сборка и запуск: test/run.sh
+public class RunTests {
+    public static void main(String[] args) throws Exception {
+        List<String> names = new ArrayList<>(List.of(args));
+        if (names.isEmpty()) {
+            File directory = new File(RunTests.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            String[] files = directory.list((dir, name) -> name.endsWith("Test.class") && !name.contains("$"));
+            for (String file : files != null ? files : new String[0]) {
+                names.add(file.substring(0, file.length() - ".class".length()));
+            }
+            Collections.sort(names);
+        }
+
+        int failedTests = 0;
+        for (String name : names) {
+            int before = Check.failures();
+            Method run = Class.forName(name).getDeclaredMethod("run");
+            run.setAccessible(true);
+            long start = System.nanoTime();
+            try {
+                run.invoke(null);
+            } catch (InvocationTargetException e) {
+                Check.that(false, name + ": исключение " + e.getCause());
+                e.getCause().printStackTrace(System.out);
+            }
+            int failed = Check.failures() - before;
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(name + ": " + (failed == 0 ? "все проверки пройдены" : "ошибок " + failed) + " (" + millis + " мс)");
+            if (failed > 0) {
+                failedTests++;
+            }
+        }
+        System.out.println("Тестов: " + names.size() + ", с ошибками: " + failedTests);
+        if (failedTests > 0) {
+            System.exit(1);
+        }
+    }
+}
\ No newline at end of file
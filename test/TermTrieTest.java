@@ -0,0 +1,105 @@
+import java.util.*;
+
+//проверка TermTrie против TreeMap: вставка с делением рёбер, удаление со слиянием узлов, обход
+//по возрастанию, поиск по началу слова и с опечатками против прямого подсчёта расстояния Левенштейна
+//запуск: test/run.sh TermTrieTest
+class TermTrieTest {
+    static void run() {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            TermTrie<String> trie = new TermTrie<>();
+            TreeMap<String, String> model = new TreeMap<>();
+            //маленький алфавит: много общих начал, слов-префиксов друг друга и делений рёбер
+            for (int i = 0; i < 3000; i++) {
+                String word = word(random);
+                if (random.nextInt(3) == 0) {
+                    Check.that(Objects.equals(trie.remove(word), model.remove(word)), "remove(" + word + ")");
+                } else {
+                    Check.that(Objects.equals(trie.put(word, word + i), model.put(word, word + i)), "put(" + word + ")");
+                }
+            }
+            checkSame("случайные изменения", trie, model);
+
+            for (int i = 0; i < 50; i++) {
+                String prefix = word(random);
+                prefix = prefix.substring(0, Math.min(prefix.length(), random.nextInt(4)));
+                List<String> expected = new ArrayList<>();
+                for (Map.Entry<String, String> entry : model.entrySet()) {
+                    if (entry.getKey().startsWith(prefix)) {
+                        expected.add(entry.getValue());
+                    }
+                }
+                List<String> found = new ArrayList<>();
+                trie.withPrefix(prefix, found::add);
+                Check.that(found.equals(expected), "withPrefix(" + prefix + ")");
+            }
+
+            for (int i = 0; i < 50; i++) {
+                String query = word(random);
+                int maxDistance = random.nextInt(3);
+                List<String> expected = new ArrayList<>();
+                for (Map.Entry<String, String> entry : model.entrySet()) {
+                    if (levenshtein(entry.getKey(), query) <= maxDistance) {
+                        expected.add(entry.getValue());
+                    }
+                }
+                List<String> found = new ArrayList<>();
+                trie.withinDistance(query, maxDistance, found::add);
+                Check.that(found.equals(expected), "withinDistance(" + query + ", " + maxDistance + ")");
+            }
+
+            for (String word : new ArrayList<>(model.keySet())) {
+                trie.remove(word);
+            }
+            Check.that(trie.size() == 0 && trie.get("a") == null, "пусто после удаления всех");
+            List<String> left = new ArrayList<>();
+            trie.forEach((word, value) -> left.add(word));
+            Check.that(left.isEmpty(), "обход пустого дерева");
+        }
+
+        TermTrie<Integer> trie = new TermTrie<>();
+        trie.put("", 0);
+        trie.put("кот", 1);
+        Check.that(trie.get("") == 0 && trie.get("ко") == null && trie.get("кот") == 1 && trie.get("кота") == null, "пустое слово и кириллица");
+        Check.that(trie.computeIfAbsent("кот", word -> 2) == 1 && trie.computeIfAbsent("ком", word -> 3) == 3 && trie.size() == 3,
+                "computeIfAbsent");
+    }
+
+    //слово из букв a-c длиной до 6
+    private static String word(Random random) {
+        int length = random.nextInt(7);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(3)));
+        }
+        return word.toString();
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] distance = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    distance[i][j] = i + j;
+                } else {
+                    distance[i][j] = Math.min(distance[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1),
+                            Math.min(distance[i - 1][j], distance[i][j - 1]) + 1);
+                }
+            }
+        }
+        return distance[a.length()][b.length()];
+    }
+
+    private static void checkSame(String name, TermTrie<String> trie, TreeMap<String, String> model) {
+        Check.that(trie.size() == model.size(), name + ": размер " + trie.size() + " вместо " + model.size());
+        for (Map.Entry<String, String> entry : model.entrySet()) {
+            if (!entry.getValue().equals(trie.get(entry.getKey()))) {
+                Check.that(false, name + ": слово " + entry.getKey());
+                return;
+            }
+        }
+        Map<String, String> iterated = new LinkedHashMap<>();
+        trie.forEach(iterated::put);
+        Check.that(new ArrayList<>(iterated.entrySet()).equals(new ArrayList<>(model.entrySet())), name + ": обход по возрастанию");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+import java.io.*;
+import java.util.*;
+
+//проверка TextIndex.top против прямого подсчёта BM25 по всем строкам: WAND не должен терять
+//строки из первых k; то же после удалений, после слияния частей и после записи и чтения
+//запуск: test/run.sh TextIndexTest
+class TextIndexTest {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double EPSILON = 1e-9;
+    private static final String[] WORDS = {"кот", "пёс", "дом", "сад", "лес", "река", "поле", "гора", "мост", "луг"};
+
+    static void run() throws IOException {
+        Random random = new Random(5);
+        Tokenizer tokenizer = Tokenizer.DEFAULT;
+        for (int round = 0; round < 10; round++) {
+            int count = 1 + random.nextInt(3000);
+            String[] values = new String[count];
+            TextIndex index = new TextIndex();
+            for (int row = 0; row < count; row++) {
+                values[row] = text(random);
+                index.add(values[row], row, tokenizer);
+            }
+            checkTop("построение", index, values, random, tokenizer);
+
+            for (int row = 0; row < count; row += 1 + random.nextInt(4)) {
+                index.remove(values[row], row, tokenizer);
+                values[row] = null;
+            }
+            checkTop("после удалений", index, values, random, tokenizer);
+
+            //две части по диапазонам строк, граница внутри страницы длин
+            int split = random.nextInt(count + 1);
+            TextIndex first = new TextIndex();
+            TextIndex second = new TextIndex();
+            for (int row = 0; row < count; row++) {
+                if (values[row] != null) {
+                    (row < split ? first : second).add(values[row], row, tokenizer);
+                }
+            }
+            first.merge(second);
+            checkTop("после слияния", first, values, random, tokenizer);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            index.write(new DataOutputStream(bytes));
+            TextIndex read = TextIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            checkTop("после записи и чтения", read, values, random, tokenizer);
+
+            String word = WORDS[random.nextInt(WORDS.length)];
+            RoaringBitmap expected = new RoaringBitmap();
+            for (int row = 0; row < count; row++) {
+                if (values[row] != null && tokens(values[row], tokenizer).contains(word)) {
+                    expected.add(row);
+                }
+            }
+            Check.that(index.rows(word).equals(expected) && read.rows(word).equals(expected), "rows(" + word + ")");
+            Check.that(index.prefixRows(word.substring(0, 2)).getCardinality() >= expected.getCardinality(), "prefixRows");
+            Check.that(index.fuzzyRows(word, 0).equals(expected), "fuzzyRows с нулевым расстоянием");
+        }
+
+        TextIndex empty = new TextIndex();
+        Check.that(empty.top("кот", 5, tokenizer).length == 0, "пустой индекс");
+    }
+
+    //от 1 до 12 слов, частые слова повторяются в одной строке
+    private static String text(Random random) {
+        int length = 1 + random.nextInt(12);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            //квадрат даёт неравномерные частоты слов, а значит и разные idf
+            double position = random.nextDouble();
+            text.append(WORDS[(int) (position * position * WORDS.length)]).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static List<String> tokens(String value, Tokenizer tokenizer) {
+        List<String> tokens = new ArrayList<>();
+        tokenizer.tokenize(value, tokens::add);
+        return tokens;
+    }
+
+    private static void checkTop(String name, TextIndex index, String[] values, Random random, Tokenizer tokenizer) {
+        for (int i = 0; i < 10; i++) {
+            String query = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + (random.nextBoolean() ? " " + WORDS[random.nextInt(WORDS.length)] : "");
+            int k = 1 + random.nextInt(50);
+            double[] scores = scores(values, query, tokenizer);
+
+            Integer[] ranked = new Integer[values.length];
+            for (int row = 0; row < ranked.length; row++) {
+                ranked[row] = row;
+            }
+            Arrays.sort(ranked, (a, b) -> Double.compare(scores[b], scores[a]));
+            int matching = 0;
+            for (double score : scores) {
+                if (score > 0) matching++;
+            }
+            int expectedCount = Math.min(k, matching);
+
+            int[] top = index.top(query, k, tokenizer);
+            if (top.length != expectedCount) {
+                Check.that(false, name + ": top(" + query + ", " + k + ") вернул " + top.length + " строк вместо " + expectedCount);
+                continue;
+            }
+            //при равных оценках строки могут быть любыми из равных, поэтому сравниваются оценки по местам
+            for (int place = 0; place < top.length; place++) {
+                if (Math.abs(scores[top[place]] - scores[ranked[place]]) > EPSILON) {
+                    Check.that(false, name + ": top(" + query + ", " + k + ") место " + place + ": строка " + top[place]
+                            + " с оценкой " + scores[top[place]] + " вместо " + scores[ranked[place]]);
+                    break;
+                }
+            }
+        }
+    }
+
+    //BM25 по всем живым строкам напрямую
+    private static double[] scores(String[] values, String query, Tokenizer tokenizer) {
+        int documents = 0;
+        long totalLength = 0;
+        Map<String, Integer> frequencies = new HashMap<>();
+        List<List<String>> tokens = new ArrayList<>();
+        for (String value : values) {
+            List<String> words = value != null ? tokens(value, tokenizer) : List.of();
+            tokens.add(words);
+            if (value == null) continue;
+            documents++;
+            totalLength += words.size();
+            for (String word : new HashSet<>(words)) {
+                frequencies.merge(word, 1, Integer::sum);
+            }
+        }
+        double averageLength = Math.max(1.0, (double) totalLength / Math.max(documents, 1));
+
+        double[] scores = new double[values.length];
+        for (String word : new LinkedHashSet<>(tokens(query, tokenizer))) {
+            int frequency = frequencies.getOrDefault(word, 0);
+            if (frequency == 0) continue;
+            double idf = Math.log(1 + (documents - frequency + 0.5) / (frequency + 0.5));
+            for (int row = 0; row < values.length; row++) {
+                List<String> words = tokens.get(row);
+                int tf = Collections.frequency(words, word);
+                if (tf == 0) continue;
+                double norm = K1 * (1 - B + B * words.size() / averageLength);
+                scores[row] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        return scores;
+    }
+}
\ No newline at end of file
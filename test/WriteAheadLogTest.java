@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+//проверка WriteAheadLog: повтор записей после контрольной точки, недописанный хвост, обрезанный
+//на любом байте последней записи, испорченная CRC и мусор в конце; после открытия журнал
+//обрезается до целых записей и продолжается со следующего LSN
+//запуск: test/run.sh WriteAheadLogTest
+class WriteAheadLogTest {
+    private static final int ENTRIES = 20;
+
+    static void run() throws IOException {
+        File databaseFile = File.createTempFile("wal-test", ".fdb");
+        File logFile = WriteAheadLog.fileFor(databaseFile);
+        try {
+            List<Long> ends = new ArrayList<>();
+            try (WriteAheadLog log = WriteAheadLog.create(databaseFile, 100)) {
+                for (int i = 0; i < ENTRIES; i++) {
+                    long lsn = log.append(type(i), data(i));
+                    Check.that(lsn == 101 + i, "LSN " + lsn + " вместо " + (101 + i));
+                    ends.add(log.size());
+                }
+                log.sync(log.lastLsn());
+            }
+            byte[] full = Files.readAllBytes(logFile.toPath());
+
+            List<Integer> replayed = replay(databaseFile, 100);
+            Check.that(replayed.equals(range(0, ENTRIES)), "повтор всего журнала: " + replayed);
+            Check.that(replay(databaseFile, 110).equals(range(10, ENTRIES)), "записи до контрольной точки пропускаются");
+
+            //обрыв на каждом байте последней записи и на границах записей
+            long lastStart = ends.get(ENTRIES - 2);
+            for (long cut = lastStart; cut < full.length; cut++) {
+                Files.write(logFile.toPath(), Arrays.copyOf(full, (int) cut));
+                checkRecovered("обрыв на байте " + cut, databaseFile, ENTRIES - 1, lastStart);
+            }
+            Files.write(logFile.toPath(), Arrays.copyOf(full, ends.get(4).intValue()));
+            checkRecovered("обрыв на границе записи", databaseFile, 5, ends.get(4));
+
+            //испорченный байт данных в шестой записи: всё начиная с неё отбрасывается
+            byte[] corrupted = full.clone();
+            corrupted[ends.get(4).intValue() + 15] ^= 1;
+            Files.write(logFile.toPath(), corrupted);
+            checkRecovered("испорченная CRC", databaseFile, 5, ends.get(4));
+
+            //мусор после целых записей, в том числе длина больше допустимой
+            byte[] garbage = Arrays.copyOf(full, full.length + 8);
+            Arrays.fill(garbage, full.length, garbage.length, (byte) 0x7F);
+            Files.write(logFile.toPath(), garbage);
+            checkRecovered("мусор в конце", databaseFile, ENTRIES, full.length);
+
+            Check.that(WriteAheadLog.fileFor(databaseFile).delete(), "удаление журнала");
+            try (WriteAheadLog log = WriteAheadLog.open(databaseFile, 7, (type, data) -> Check.that(false, "повтор без журнала"))) {
+                Check.that(log.lastLsn() == 7 && log.size() == 0, "открытие без файла журнала создаёт пустой");
+            }
+        } finally {
+            logFile.delete();
+            databaseFile.delete();
+        }
+    }
+
+    //после открытия повторены первые entries записей, файл обрезан до length, следующая запись
+    //получает LSN сразу за последней целой и видна при следующем открытии
+    private static void checkRecovered(String name, File databaseFile, int entries, long length) throws IOException {
+        List<Integer> replayed = new ArrayList<>();
+        try (WriteAheadLog log = WriteAheadLog.open(databaseFile, 100, (type, data) -> replayed.add(read(type, data)))) {
+            Check.that(replayed.equals(range(0, entries)), name + ": повторены " + replayed);
+            Check.that(log.size() == length, name + ": размер после открытия " + log.size() + " вместо " + length);
+            Check.that(log.lastLsn() == 100 + entries, name + ": последний LSN " + log.lastLsn());
+            Check.that(log.append(type(entries), data(entries)) == 101 + entries, name + ": LSN продолжения");
+        }
+        Check.that(replay(databaseFile, 100).equals(range(0, entries + 1)), name + ": продолжение после открытия");
+    }
+
+    private static List<Integer> replay(File databaseFile, long checkpointLsn) throws IOException {
+        List<Integer> replayed = new ArrayList<>();
+        WriteAheadLog.open(databaseFile, checkpointLsn, (type, data) -> replayed.add(read(type, data))).close();
+        return replayed;
+    }
+
+    //данные записи i: номер и i байт нагрузки, тип по кругу из четырёх
+    private static byte type(int i) {
+        return (byte) (WriteAheadLog.ADD + i % 4);
+    }
+
+    private static byte[] data(int i) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(i);
+        out.write(new byte[i]);
+        return bytes.toByteArray();
+    }
+
+    private static int read(byte type, DataInput data) throws IOException {
+        int i = data.readInt();
+        Check.that(type == type(i), "тип записи " + i);
+        return i;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,7 @@
+#!/bin/sh
+# сборка базы и тестов в out/ и запуск всех тестов или перечисленных: test/run.sh KeyIndexTest
+set -e
+cd "$(dirname "$0")/.."
+rm -rf out
+javac -encoding UTF-8 -d out *.java test/*.java
+java -cp out RunTests "$@"